@@ -18,8 +18,27 @@ repositories {
     mavenCentral()
 }
 
+sourceSets {
+    // the Vector API paths, the only sources compiled against the incubating jdk.incubator.vector module, which the
+    // main sources load reflectively when the module is added at runtime
+    create("vector") {
+        compileClasspath += sourceSets.main.get().output
+    }
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output + sourceSets["vector"].output
+    }
+    test {
+        runtimeClasspath += sourceSets["vector"].output
+    }
+}
+
 val extraLibs by configurations.creating
 val implementation by configurations
+val jmhImplementation by configurations.getting {
+    extendsFrom(implementation)
+}
+val jmhAnnotationProcessor by configurations
 
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.3"))
@@ -29,10 +48,41 @@ dependencies {
     extraLibs("org.kynosarges:tektosyne:6.2.0")
     extraLibs("org.ejml:ejml-all:0.43")
     implementation.extendsFrom(extraLibs)
+    jmhImplementation("org.openjdk.jmh:jmh-core:1.37")
+    jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.named<JavaCompile>("compileVectorJava") {
+    // using an incubating module always warns, which is expected here and nowhere else
+    options.compilerArgs.addAll(listOf("--add-modules=jdk.incubator.vector", "-Xlint:none"))
 }
 
 tasks.test {
     useJUnitPlatform()
+    jvmArgs("--add-modules=jdk.incubator.vector")
+}
+
+// ./gradlew jmh [-PjmhInclude=<regex>], allocation rates being reported by the gc profiler
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    jvmArgs("--add-modules=jdk.incubator.vector")
+    val results = layout.buildDirectory.file("reports/jmh/results.json")
+    args("-prof", "gc", "-rf", "json", "-rff", results.get().asFile.path)
+    (project.findProperty("jmhInclude") as String?)?.let { args(it) }
+    doFirst { results.get().asFile.parentFile.mkdirs() }
+}
+
+// ./gradlew scaling [-Pscaling="<options>"], see src/test/java/Scaling.java
+tasks.register<JavaExec>("scaling") {
+    group = "verification"
+    description = "Runs the scaling regression harness"
+    classpath = sourceSets.test.get().runtimeClasspath
+    mainClass.set("Scaling")
+    jvmArgs("--add-modules=jdk.incubator.vector", "-Derosio.metrics=true")
+    (project.findProperty("scaling") as String?)?.let { args(it.split(" ").filter(String::isNotBlank)) }
 }
 
 publishing {
@@ -54,6 +104,11 @@ publishing {
 }
 
 tasks.jar {
+    from(sourceSets["vector"].output)
     from(extraLibs.map { if (it.isDirectory) it else zipTree(it) })
 }
 
+tasks.named<Jar>("sourcesJar") {
+    from(sourceSets["vector"].allSource)
+}
+
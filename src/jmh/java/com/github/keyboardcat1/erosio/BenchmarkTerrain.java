@@ -0,0 +1,49 @@
+package com.github.keyboardcat1.erosio;
+
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryGrid;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryNatural;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+/**
+ * The reproducible terrain shared by the benchmarks: a square region sampled at a requested node count, with seeded
+ * noise as initial heights
+ */
+final class BenchmarkTerrain {
+    static final double SIDE = 1024;
+    static final RectD BOUNDS = new RectD(-SIDE / 2, -SIDE / 2, SIDE / 2, SIDE / 2);
+    static final long SEED = 2;
+
+    private BenchmarkTerrain() {
+    }
+
+    /**
+     * The distance between nodes giving approximately a node count over the region
+     */
+    static double spacing(int nodeCount) {
+        return SIDE / Math.sqrt(nodeCount);
+    }
+
+    static EroderGeometry geometry(String kind, int nodeCount) {
+        PointD[] polygon = EroderGeometry.RectDtoPolygon(BOUNDS);
+        return switch (kind) {
+            case "grid" -> new EroderGeometryGrid(polygon, spacing(nodeCount));
+            case "natural" -> new EroderGeometryNatural(polygon, spacing(nodeCount), SEED);
+            default -> throw new IllegalArgumentException("Unknown geometry " + kind);
+        };
+    }
+
+    static EroderSettings settings(int maxIterations) {
+        return new EroderSettings(
+                (p, t) -> 1.0, BenchmarkTerrain::noise,
+                p -> 2.0, 0.5,
+                (p, h) -> 30.0,
+                1, maxIterations, 1E-2
+        );
+    }
+
+    private static double noise(PointD p) {
+        double value = Math.sin(p.x * 12.9898 + p.y * 78.233 + SEED) * 43758.5453;
+        return 10 * (value - Math.floor(value));
+    }
+}
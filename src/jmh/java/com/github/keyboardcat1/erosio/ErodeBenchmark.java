@@ -0,0 +1,108 @@
+package com.github.keyboardcat1.erosio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.DoubleBuffer;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every phase of an {@link Eroder} iteration measured separately, starting from the initial heights
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ErodeBenchmark {
+    @Param({"grid", "natural"})
+    public String geometry;
+    @Param({"10000", "100000", "1000000"})
+    public int nodeCount;
+    @Param({"heap", "direct"})
+    public String store;
+
+    private EroderGeometry eroderGeometry;
+    private PackedGeometry packed;
+    private EroderSettings settings;
+    private NodeStore nodeStore;
+    private DoubleBuffer heights;
+    private DoubleBuffer erosionRates;
+    private DoubleBuffer drainage;
+    private DoubleBuffer newHeights;
+    private BitSet outlets;
+    private int[] initialReceivers;
+    private Eroder.StreamGraph streamGraph;
+    private Eroder.StreamGraph resolved;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        eroderGeometry = BenchmarkTerrain.geometry(geometry, nodeCount);
+        packed = eroderGeometry.packed();
+        settings = BenchmarkTerrain.settings(1);
+        nodeStore = store.equals("direct") ? NodeStore.direct() : NodeStore.heap();
+        int n = packed.size();
+        heights = nodeStore.doubles(n);
+        erosionRates = nodeStore.doubles(n);
+        drainage = nodeStore.doubles(n);
+        newHeights = nodeStore.doubles(n);
+        for (int node = 0; node < n; node++) {
+            heights.put(node, settings.initialHeightLambda().apply(packed.nodes[node]));
+            erosionRates.put(node, settings.erosionRateLambda().apply(packed.nodes[node]));
+        }
+        outlets = eroderGeometry.outlets();
+        streamGraph = new Eroder.StreamGraph(nodeStore, n);
+        Eroder.buildInitialStreamGraph(streamGraph, packed, heights);
+        initialReceivers = new int[n];
+        streamGraph.receivers.get(0, initialReceivers);
+        resolved = new Eroder.StreamGraph(nodeStore, n);
+        resolved.receivers.put(0, initialReceivers);
+        resolved.index();
+        Eroder.delakefyStreamGraph(resolved, packed, heights, outlets);
+        Eroder.computeDrainage(resolved, packed.areas, drainage);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        nodeStore.release(heights);
+        nodeStore.release(erosionRates);
+        nodeStore.release(drainage);
+        nodeStore.release(newHeights);
+        streamGraph.release(nodeStore);
+        resolved.release(nodeStore);
+        nodeStore.close();
+    }
+
+    @Benchmark
+    public Eroder.StreamGraph streamGraph() {
+        Eroder.buildInitialStreamGraph(streamGraph, packed, heights);
+        return streamGraph;
+    }
+
+    @Benchmark
+    public Eroder.StreamGraph lakeResolution() {
+        streamGraph.receivers.put(0, initialReceivers);
+        streamGraph.index();
+        Eroder.delakefyStreamGraph(streamGraph, packed, heights, outlets);
+        return streamGraph;
+    }
+
+    @Benchmark
+    public DoubleBuffer drainage() {
+        Eroder.computeDrainage(resolved, packed.areas, drainage);
+        return drainage;
+    }
+
+    @Benchmark
+    public DoubleBuffer heightSolve() {
+        Eroder.computeNewHeights(0, heights, drainage, erosionRates, resolved, settings, packed,
+                eroderGeometry.minDistance, newHeights);
+        return newHeights;
+    }
+
+    @Benchmark
+    public EroderResults iteration() {
+        return Eroder.erode(settings, eroderGeometry, nodeStore);
+    }
+}
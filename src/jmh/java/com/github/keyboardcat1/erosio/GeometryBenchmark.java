@@ -0,0 +1,38 @@
+package com.github.keyboardcat1.erosio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of the built-in geometries and of their packed arrays
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeometryBenchmark {
+    @Param({"grid", "natural"})
+    public String geometry;
+    @Param({"10000", "100000", "1000000"})
+    public int nodeCount;
+
+    private EroderGeometry built;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        built = BenchmarkTerrain.geometry(geometry, nodeCount);
+    }
+
+    @Benchmark
+    public EroderGeometry construct() {
+        return BenchmarkTerrain.geometry(geometry, nodeCount);
+    }
+
+    @Benchmark
+    public PackedGeometry pack() {
+        return new PackedGeometry(built);
+    }
+}
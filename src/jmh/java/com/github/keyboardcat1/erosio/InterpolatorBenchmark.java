@@ -0,0 +1,82 @@
+package com.github.keyboardcat1.erosio;
+
+import com.github.keyboardcat1.erosio.interpolation.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction, point query and bulk query throughput of every {@link Interpolator} over a natural geometry
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InterpolatorBenchmark {
+    private static final int QUERIES = 4096;
+    private static final int BULK_SIZE = 256;
+
+    @Param({"NN", "IDW", "Kriging", "GaussianKernel", "GaussianBlur", "CPURasterizer", "CPURasterizerRandomAccess"})
+    public String interpolator;
+    @Param({"10000", "100000"})
+    public int nodeCount;
+
+    private EroderResults results;
+    private Interpolator built;
+    private final double[] queryX = new double[QUERIES];
+    private final double[] queryY = new double[QUERIES];
+    private int query = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        results = Eroder.erode(BenchmarkTerrain.settings(10), BenchmarkTerrain.geometry("natural", nodeCount));
+        built = create();
+        // queries stay within the inner region, away from the convex hull
+        SplittableRandom random = new SplittableRandom(BenchmarkTerrain.SEED);
+        for (int i = 0; i < QUERIES; i++) {
+            queryX[i] = 0.8 * (random.nextDouble() - 0.5) * BenchmarkTerrain.SIDE;
+            queryY[i] = 0.8 * (random.nextDouble() - 0.5) * BenchmarkTerrain.SIDE;
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Interpolator construct() {
+        return create();
+    }
+
+    @Benchmark
+    public double point() {
+        int i = query++ & (QUERIES - 1);
+        try {
+            return built.interpolate(queryX[i], queryY[i]);
+        } catch (IndexOutOfBoundsException e) {
+            return Double.NaN;
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public double[] bulk() {
+        double step = 0.8 * BenchmarkTerrain.SIDE / BULK_SIZE;
+        double min = -0.4 * BenchmarkTerrain.SIDE;
+        return built.interpolate(min, min, step, BULK_SIZE, BULK_SIZE);
+    }
+
+    private Interpolator create() {
+        double spacing = BenchmarkTerrain.spacing(nodeCount);
+        return switch (interpolator) {
+            case "NN" -> new InterpolatorNN(results);
+            case "IDW" -> new InterpolatorIDW(results, 2.5, 5 * spacing);
+            case "Kriging" -> new InterpolatorKriging(results, InterpolatorKriging.Model.EXPONENTIAL, 1, 10, 5 * spacing, 1);
+            case "GaussianKernel" -> new InterpolatorGaussianKernel(results, 2.5, 1E-6);
+            case "GaussianBlur" -> new InterpolatorGaussianBlur(results, spacing / 2, 2.5, 1E-6);
+            case "CPURasterizer" -> new InterpolatorCPURasterizer(results, spacing / 2, 1);
+            case "CPURasterizerRandomAccess" -> new InterpolatorCPURasterizerRandomAccess(results, 1);
+            default -> throw new IllegalArgumentException("Unknown interpolator " + interpolator);
+        };
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.keyboardcat1.erosio;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The state of an incremental erosion, which only updates the parts of the stream graph around the nodes whose height
+ * changed in the previous iteration. <br/>
+ * Receivers are recomputed around every changed node. Lakes are resolved again only when a receiver changed or a node
+ * on the boundary between two lake basins moved by more than the tolerance since the last resolution, the drainage
+ * being recomputed along with them. A node is left out of the height solve while it is settled: it moved by at most
+ * the tolerance in the previous iteration, its receiver and drainage did not change, and its receiver did not move by
+ * more than the tolerance in the current iteration. Converged basins are thus frozen from their outlet upstream.
+ */
+final class ActiveSet {
+    final double tolerance;
+    // the receivers before lake resolution
+    final IntBuffer lowest;
+    // the root every node drains into before lake resolution, as of the last resolution
+    final IntBuffer sinks;
+    // the heights as of the last lake resolution with lakes
+    final DoubleBuffer reference;
+    // the receivers and drainage before the stream graph was last rebuilt
+    final IntBuffer previousReceivers;
+    final DoubleBuffer previousDrainage;
+    // the last iteration in which each node is solved regardless of its receiver
+    final IntBuffer activeUntil;
+    // the nodes whose height changed in the last iteration, the first changedCount
+    final IntBuffer changed;
+    int changedCount;
+    // the largest height change of the last iteration
+    double maxChange;
+    // the lakes of the last resolution
+    int lakes;
+
+    ActiveSet(NodeStore store, int size, double tolerance) {
+        this.tolerance = tolerance;
+        this.lowest = store.ints(size);
+        this.sinks = store.ints(size);
+        this.reference = store.doubles(size);
+        this.previousReceivers = store.ints(size);
+        this.previousDrainage = store.doubles(size);
+        this.activeUntil = store.ints(size);
+        this.changed = store.ints(size);
+        // every node is solved in the first iteration
+        for (int node = 0; node < size; node++)
+            activeUntil.put(node, 0);
+    }
+
+    // recomputes the receivers before lake resolution around every changed node, returning whether any changed
+    boolean updateLowest(PackedGeometry geometry, DoubleBuffer heights) {
+        boolean updated = false;
+        int n = geometry.size();
+        // visiting every neighborhood once is cheaper than visiting those of most nodes several times
+        if ((long) changedCount * (n + geometry.adjacency.length) >= (long) n * n) {
+            for (int node = 0; node < n; node++)
+                updated |= updateLowest(geometry, heights, node);
+            return updated;
+        }
+        for (int c = 0; c < changedCount; c++) {
+            int node = changed.get(c);
+            updated |= updateLowest(geometry, heights, node);
+            for (int j = geometry.adjacencyStart[node]; j < geometry.adjacencyStart[node + 1]; j++)
+                updated |= updateLowest(geometry, heights, geometry.adjacency[j]);
+        }
+        return updated;
+    }
+
+    // whether a changed node bordering another lake basin moved by more than the tolerance since the last resolution
+    boolean passesMoved(PackedGeometry geometry, DoubleBuffer heights) {
+        for (int c = 0; c < changedCount; c++) {
+            int node = changed.get(c);
+            if (Math.abs(heights.get(node) - reference.get(node)) <= tolerance) continue;
+            for (int j = geometry.adjacencyStart[node]; j < geometry.adjacencyStart[node + 1]; j++)
+                if (sinks.get(geometry.adjacency[j]) != sinks.get(node)) return true;
+        }
+        return false;
+    }
+
+    // keeps the receivers and drainage of a stream graph about to be rebuilt
+    void rebuilding(Eroder.StreamGraph streamGraph, DoubleBuffer drainage) {
+        previousReceivers.put(0, streamGraph.receivers, 0, streamGraph.size);
+        previousDrainage.put(0, drainage, 0, streamGraph.size);
+    }
+
+    // solves the nodes whose receiver or drainage changed with the rebuild of this iteration
+    void rebuilt(Eroder.StreamGraph streamGraph, DoubleBuffer drainage, int iteration) {
+        for (int node = 0; node < streamGraph.size; node++)
+            if (streamGraph.receivers.get(node) != previousReceivers.get(node)
+                    || drainage.get(node) != previousDrainage.get(node))
+                activeUntil.put(node, iteration);
+    }
+
+    // records the heights of a lake resolution, only needed to tell whether its passes moved if there are lakes
+    void resolved(DoubleBuffer heights, int lakes) {
+        if (lakes > 0) reference.put(0, heights, 0, reference.capacity());
+        this.lakes = lakes;
+    }
+
+    void clearChanges() {
+        changedCount = 0;
+        maxChange = 0;
+    }
+
+    // whether a node keeps its height in an iteration, given the old and new heights of its receiver
+    boolean isSettled(int node, int receiver, DoubleBuffer oldHeights, DoubleBuffer newHeights, int iteration) {
+        return activeUntil.get(node) < iteration
+                && (receiver == node || Math.abs(newHeights.get(receiver) - oldHeights.get(receiver)) <= tolerance);
+    }
+
+    void record(int node, double oldHeight, double newHeight, int iteration) {
+        if (newHeight == oldHeight) return;
+        changed.put(changedCount++, node);
+        double change = Math.abs(newHeight - oldHeight);
+        if (change > maxChange) maxChange = change;
+        if (change > tolerance) activeUntil.put(node, iteration + 1);
+    }
+
+    void release(NodeStore store) {
+        store.release(lowest);
+        store.release(sinks);
+        store.release(reference);
+        store.release(previousReceivers);
+        store.release(previousDrainage);
+        store.release(activeUntil);
+        store.release(changed);
+    }
+
+    private boolean updateLowest(PackedGeometry geometry, DoubleBuffer heights, int node) {
+        int lowest = node;
+        double lowestHeight = heights.get(node);
+        for (int j = geometry.adjacencyStart[node]; j < geometry.adjacencyStart[node + 1]; j++) {
+            int neighbor = geometry.adjacency[j];
+            double height = heights.get(neighbor);
+            if (height < lowestHeight) {
+                lowest = neighbor;
+                lowestHeight = height;
+            }
+        }
+        if (this.lowest.get(node) == lowest) return false;
+        this.lowest.put(node, lowest);
+        return true;
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.keyboardcat1.erosio;
+
+import org.kynosarges.tektosyne.geometry.GeoUtils;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.PolygonLocation;
+
+import java.util.*;
+
+/**
+ * Finds the nodes of a geometry lying along its bounding polygon
+ */
+final class Boundaries {
+    private Boundaries() {
+    }
+
+    /**
+     * The nodes within a distance of the outline of a polygon, found through a grid of cells each listing the edges
+     * passing near it, so that long outlines such as coastlines are not scanned for every node
+     *
+     * @param geometry The nodes to test
+     * @param polygon  The polygon whose outline is searched
+     * @param distance The largest distance from the outline
+     * @return The IDs of the nodes near the outline
+     */
+    static BitSet near(PackedGeometry geometry, PointD[] polygon, double distance) {
+        double cell = 2 * distance;
+        Map<Long, List<Integer>> cells = new HashMap<>();
+        for (int edge = 0; edge < polygon.length; edge++) {
+            PointD a = polygon[edge], b = polygon[(edge + 1) % polygon.length];
+            // the cells around every step of at most a cell along the edge
+            int steps = (int) Math.ceil(Math.hypot(b.x - a.x, b.y - a.y) / cell);
+            for (int step = 0; step <= steps; step++) {
+                double t = steps == 0 ? 0 : step / (double) steps;
+                long cx = cellOf(a.x + t * (b.x - a.x), cell), cy = cellOf(a.y + t * (b.y - a.y), cell);
+                for (long dx = -1; dx <= 1; dx++)
+                    for (long dy = -1; dy <= 1; dy++) {
+                        List<Integer> edges = cells.computeIfAbsent(key(cx + dx, cy + dy), k -> new ArrayList<>(2));
+                        if (edges.isEmpty() || edges.get(edges.size() - 1) != edge) edges.add(edge);
+                    }
+            }
+        }
+
+        BitSet out = new BitSet(geometry.size());
+        for (int node = 0; node < geometry.size(); node++) {
+            double x = geometry.xs[node], y = geometry.ys[node];
+            List<Integer> edges = cells.get(key(cellOf(x, cell), cellOf(y, cell)));
+            if (edges == null) continue;
+            for (int edge : edges)
+                if (distanceSquared(x, y, polygon[edge], polygon[(edge + 1) % polygon.length]) <= distance * distance) {
+                    out.set(node);
+                    break;
+                }
+        }
+        return out;
+    }
+
+    /**
+     * The nodes at the vertices of the convex hull of a geometry
+     *
+     * @param geometry The nodes to test
+     * @return The IDs of the hull vertices
+     */
+    static BitSet convexHull(PackedGeometry geometry) {
+        PointD[] convexHull = GeoUtils.convexHull(geometry.nodes.clone());
+        BitSet out = new BitSet(geometry.size());
+        for (int node = 0; node < geometry.size(); node++)
+            if (GeoUtils.pointInPolygon(geometry.nodes[node], convexHull) == PolygonLocation.VERTEX) out.set(node);
+        return out;
+    }
+
+    private static long cellOf(double coordinate, double cell) {
+        return (long) Math.floor(coordinate / cell);
+    }
+
+    private static long key(long cx, long cy) {
+        return cx * 0x9E3779B97F4A7C15L ^ cy;
+    }
+
+    // from a point to a segment
+    private static double distanceSquared(double x, double y, PointD a, PointD b) {
+        double dx = b.x - a.x, dy = b.y - a.y;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - a.x) * dx + (y - a.y) * dy) / lengthSquared));
+        double ex = a.x + t * dx - x, ey = a.y + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+}
@@ -1,12 +1,19 @@
 package com.github.keyboardcat1.erosio;
 
+import com.github.keyboardcat1.erosio.diagnostics.ErodePhaseEvent;
+import com.github.keyboardcat1.erosio.diagnostics.Metrics;
 import org.kynosarges.tektosyne.geometry.GeoUtils;
 import org.kynosarges.tektosyne.geometry.PointD;
 import org.kynosarges.tektosyne.geometry.PolygonLocation;
 
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.ObjIntConsumer;
 
 /**
  * The main fluvial erosion class
@@ -24,248 +31,747 @@ public final class Eroder {
      * @return An eroded heightmap along with computational details
      */
     public static EroderResults erode(EroderSettings settings, EroderGeometry eroderGeometry) {
-        Map<PointD, Double> heightMap = new HashMap<>(eroderGeometry.graph.size());
-        Map<PointD, Double> erosionRateMap = new HashMap<>(eroderGeometry.graph.size());
-        for (PointD point : eroderGeometry.graph.keySet()) {
-            heightMap.put(point, settings.initialHeightLambda().apply(point));
-            erosionRateMap.put(point, settings.erosionRateLambda().apply(point));
-        }
+        return erode(settings, eroderGeometry, NodeStore.heap());
+    }
 
-        PointD[] convexHull = GeoUtils.convexHull(eroderGeometry.graph.keySet().toArray(new PointD[0]));
-        Set<PointD> potentialDrains = eroderGeometry.graph.keySet().stream()
-                .filter(node -> GeoUtils.pointInPolygon(node, convexHull) == PolygonLocation.VERTEX)
-                .collect(Collectors.toSet());
-        boolean converged = false;
-        StreamGraph streamGraph = null;
-        Map<PointD, java.lang.Double> drainageMap = null;
-        int i;
-        for (i = 0; i < settings.maxIterations() && !converged; i++) {
-            streamGraph = buildInitialStreamGraph(eroderGeometry.graph, heightMap);
-            Set<PointD> drains = new HashSet<>(streamGraph.roots);
-            drains.retainAll(potentialDrains);
-            delakefyStreamGraph(streamGraph, eroderGeometry.graph, heightMap, drains);
-            drainageMap = getDrainageMap(streamGraph, eroderGeometry.areaMap);
-            Map<PointD, Double> newHeightMap = computeNewHeightMap(i, heightMap, drainageMap, erosionRateMap, streamGraph, settings, eroderGeometry.minDistance);
-            converged = true;
-            for (PointD point : newHeightMap.keySet())
-                if (Math.abs(newHeightMap.get(point) - heightMap.get(point)) > settings.convergenceThreshold()) {
-                        converged = false;
-                        break;
-                    }
-            heightMap = newHeightMap;
-        }
+    /**
+     * Computes an eroded heightmap, keeping the per-node state of the erosion in a {@link NodeStore}
+     *
+     * @param settings       The parameters of the erosion algorithm
+     * @param eroderGeometry The Voronoi tessellated and Delaunay triangulated area to erode
+     * @param store          The store holding the state while eroding, such as {@link NodeStore#direct()}
+     * @return An eroded heightmap along with computational details, on the heap
+     */
+    public static EroderResults erode(EroderSettings settings, EroderGeometry eroderGeometry, NodeStore store) {
+        return erode(settings, eroderGeometry, store, eroderGeometry.outlets(), -1, () -> false);
+    }
 
-        assert streamGraph != null;
-        return new EroderResults(heightMap, getEroderEdges(streamGraph, drainageMap), eroderGeometry, converged ? i : -1);
+    /**
+     * Computes an eroded heightmap incrementally, only updating the stream graph around the nodes whose height changed
+     * in the previous iteration, so that iterations get cheaper as the heightmap converges. Lakes are resolved again
+     * once a receiver changes or a node bordering another lake moves by more than the tolerance, and nodes which moved
+     * by at most the tolerance are left out of the height solve as long as nothing downstream of them moves. <br/>
+     * With a tolerance of 0 the results are those of {@link #erode(EroderSettings, EroderGeometry, NodeStore)} as long
+     * as the uplift does not vary with time. A larger tolerance, at most the convergence threshold, trades accuracy
+     * for speed.
+     *
+     * @param settings       The parameters of the erosion algorithm
+     * @param eroderGeometry The Voronoi tessellated and Delaunay triangulated area to erode
+     * @param store          The store holding the state while eroding, such as {@link NodeStore#heap()}
+     * @param tolerance      The height change below which a node is considered settled
+     * @return An eroded heightmap along with computational details, on the heap
+     */
+    public static EroderResults erode(EroderSettings settings, EroderGeometry eroderGeometry, NodeStore store,
+                                      double tolerance) {
+        if (!(tolerance >= 0))
+            throw new IllegalArgumentException("The tolerance " + tolerance + " is negative");
+        return erode(settings, eroderGeometry, store, eroderGeometry.outlets(), tolerance,
+                () -> false);
     }
 
+    /**
+     * Erodes again the parts of previous results an edit reaches, such as a change of the uplift or erosion rate over a
+     * small region, holding the rest of the terrain fixed. The edited nodes, every node draining through them and the
+     * paths from them down to their outlets are eroded on their own from their previous heights, the fixed tributaries
+     * of those paths still feeding them their drainage, so that the cost of the iterations is proportional to the
+     * nodes reached rather than to the whole domain. Water is kept within the eroded nodes: a divide lowered by the
+     * edit does not capture the fixed nodes around it as a full erosion would.
+     *
+     * @param settings The edited parameters of the erosion algorithm
+     * @param previous The results of the erosion before the edit
+     * @param region   The IDs of the edited nodes in {@link EroderResults#packed()}
+     * @return The updated results along with the nodes they changed
+     */
+    public static EroderEdit erode(EroderSettings settings, EroderResults previous, BitSet region) {
+        PackedGeometry geometry = previous.packed();
+        int n = geometry.size();
+        // downstream first, the nodes draining through an edited node, then the paths below the edited nodes
+        BitSet reached = new BitSet(n);
+        for (int node : previous.downstreamOrder)
+            if (region.get(node) || reached.get(previous.receivers[node])) reached.set(node);
+        for (int node = region.nextSetBit(0); node >= 0; node = region.nextSetBit(node + 1))
+            for (int current = previous.receivers[node]; !reached.get(current); current = previous.receivers[current])
+                reached.set(current);
+        if (reached.isEmpty()) return new EroderEdit(previous, new BitSet(n));
+        int[] local = new int[n];
+        int[] global = new int[reached.cardinality()];
+        int m = 0;
+        for (int node = 0; node < n; node++)
+            local[node] = reached.get(node) ? m++ : -1;
+        for (int node = 0; node < n; node++)
+            if (local[node] >= 0) global[local[node]] = node;
+
+        // the fixed tributaries add their drainage to the area of the node they flow into
+        double[] xs = new double[m], ys = new double[m], areas = new double[m];
+        for (int node = 0; node < n; node++) {
+            int receiver = previous.receivers[node];
+            if (local[node] < 0 && local[receiver] >= 0) areas[local[receiver]] += previous.drainage[node];
+        }
+        // the edges between reached nodes, along with the jump from every lake root to the far side of its pass, the
+        // lake side of which may not be reached, so that the lakes drain the way they did
+        BitSet jumps = new BitSet(m);
+        int[] adjacencyStart = new int[m + 1];
+        for (int i = 0; i < m; i++) {
+            int node = global[i];
+            int receiver = previous.receivers[node];
+            boolean adjacent = receiver == node;
+            int count = 0;
+            for (int j = geometry.adjacencyStart[node]; j < geometry.adjacencyStart[node + 1]; j++) {
+                if (local[geometry.adjacency[j]] >= 0) count++;
+                if (geometry.adjacency[j] == receiver) adjacent = true;
+            }
+            if (!adjacent) {
+                jumps.set(i);
+                count++;
+            }
+            adjacencyStart[i + 1] = adjacencyStart[i] + count;
+        }
+        int[] adjacency = new int[adjacencyStart[m]];
+        BitSet outlets = new BitSet(m);
+        BitSet geometryOutlets = previous.eroderGeometry.outlets();
+        for (int i = 0; i < m; i++) {
+            int node = global[i];
+            xs[i] = geometry.xs[node];
+            ys[i] = geometry.ys[node];
+            areas[i] += geometry.areas[node];
+            if (geometryOutlets.get(node)) outlets.set(i);
+            int slot = adjacencyStart[i];
+            for (int j = geometry.adjacencyStart[node]; j < geometry.adjacencyStart[node + 1]; j++)
+                if (local[geometry.adjacency[j]] >= 0) adjacency[slot++] = local[geometry.adjacency[j]];
+            if (jumps.get(i)) adjacency[slot] = local[previous.receivers[node]];
+        }
+        PackedGeometry reachedGeometry = new PackedGeometry(xs, ys, areas, adjacencyStart, adjacency);
+
+        NodeStore store = NodeStore.heap();
+        DoubleBuffer[] heights = {store.doubles(m), store.doubles(m)};
+        DoubleBuffer erosionRates = store.doubles(m);
+        DoubleBuffer drainage = store.doubles(m);
+        StreamGraph streamGraph = new StreamGraph(store, m);
+        try {
+            for (int i = 0; i < m; i++) {
+                heights[0].put(i, previous.heights[global[i]]);
+                erosionRates.put(i, settings.erosionRateLambda().apply(reachedGeometry.nodes[i]));
+            }
+            int converged = iterate(settings, reachedGeometry, previous.eroderGeometry.minDistance, store, outlets, -1,
+                    () -> false, heights, erosionRates, streamGraph, drainage);
+
+            // the fixed nodes keep their order, those flowing into the eroded ones coming after them
+            double[] newHeights = previous.heights.clone();
+            int[] newReceivers = previous.receivers.clone();
+            double[] newDrainage = previous.drainage.clone();
+            int[] newBasins = new int[n];
+            int[] newOrder = new int[n];
+            BitSet tributaries = new BitSet(n);
+            int k = 0;
+            for (int node : previous.downstreamOrder) {
+                int receiver = previous.receivers[node];
+                if (reached.get(node)) continue;
+                if (reached.get(receiver) || tributaries.get(receiver)) tributaries.set(node);
+                else newOrder[k++] = node;
+            }
+            BitSet dirty = new BitSet(n);
+            for (int position = 0; position < m; position++) {
+                int i = streamGraph.stack.get(position);
+                int node = global[i];
+                newOrder[k++] = node;
+                newHeights[node] = heights[0].get(i);
+                newReceivers[node] = global[streamGraph.receivers.get(i)];
+                newDrainage[node] = drainage.get(i);
+                if (newHeights[node] != previous.heights[node] || newReceivers[node] != previous.receivers[node]
+                        || newDrainage[node] != previous.drainage[node]) dirty.set(node);
+            }
+            for (int node : previous.downstreamOrder)
+                if (tributaries.get(node)) newOrder[k++] = node;
+            for (int node : newOrder) {
+                int receiver = newReceivers[node];
+                newBasins[node] = receiver == node ? node : newBasins[receiver];
+            }
+            EroderResults out = new EroderResults(previous.eroderGeometry, newHeights, newReceivers, newDrainage,
+                    newBasins, newOrder, converged);
+            return new EroderEdit(out, dirty);
+        } finally {
+            store.release(heights[0]);
+            store.release(heights[1]);
+            store.release(erosionRates);
+            store.release(drainage);
+            streamGraph.release(store);
+        }
+    }
 
-    private static StreamGraph buildInitialStreamGraph(Map<PointD, Set<PointD>> graph, Map<PointD, Double> heightMap) {
-        Function<PointD, PointD> getLowestNeighbor = point -> {
-            PointD lowest = point;
-            for (PointD neighbor : graph.get(point))
-                if (heightMap.get(neighbor) < heightMap.get(lowest))
-                    lowest = neighbor;
-            return lowest;
-        };
-        final StreamGraph out = new StreamGraph();
-        for (PointD point : graph.keySet()) {
-            out.putIfAbsent(point, new HashSet<>());
-            PointD lowest = getLowestNeighbor.apply(point);
-            out.putIfAbsent(lowest, new HashSet<>());
-            if (!lowest.equals(point))
-                out.get(lowest).add(point);
-            else
-                out.roots.add(point);
+    /**
+     * Erodes again the parts of previous results an edit within a polygon reaches, holding the rest of the terrain
+     * fixed, as {@link #erode(EroderSettings, EroderResults, BitSet)}
+     *
+     * @param settings The edited parameters of the erosion algorithm
+     * @param previous The results of the erosion before the edit
+     * @param region   The outline of the edited region
+     * @return The updated results along with the nodes they changed
+     */
+    public static EroderEdit erode(EroderSettings settings, EroderResults previous, PointD[] region) {
+        PackedGeometry geometry = previous.packed();
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (PointD vertex : region) {
+            minX = Math.min(minX, vertex.x);
+            minY = Math.min(minY, vertex.y);
+            maxX = Math.max(maxX, vertex.x);
+            maxY = Math.max(maxY, vertex.y);
+        }
+        BitSet nodes = new BitSet(geometry.size());
+        for (int node = 0; node < geometry.size(); node++) {
+            double x = geometry.xs[node], y = geometry.ys[node];
+            if (x < minX || x > maxX || y < minY || y > maxY) continue;
+            if (GeoUtils.pointInPolygon(geometry.nodes[node], region) != PolygonLocation.OUTSIDE) nodes.set(node);
         }
+        return erode(settings, previous, nodes);
+    }
 
+    /**
+     * Computes an eroded heightmap on an executor. Cancelling the returned future, or completing it in any other way
+     * such as through {@link CompletableFuture#orTimeout}, stops the erosion at the start of its next phase.
+     *
+     * @param settings       The parameters of the erosion algorithm
+     * @param eroderGeometry The Voronoi tessellated and Delaunay triangulated area to erode
+     * @param executor       The executor running the CPU-bound erosion, typically a bounded pool
+     * @return A future completed with an eroded heightmap along with computational details
+     */
+    public static CompletableFuture<EroderResults> erodeAsync(EroderSettings settings, EroderGeometry eroderGeometry,
+                                                              Executor executor) {
+        CompletableFuture<EroderResults> out = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (out.isDone()) return;
+                try {
+                    BitSet outlets = eroderGeometry.outlets();
+                    out.complete(erode(settings, eroderGeometry, NodeStore.heap(), outlets, -1, out::isDone));
+                } catch (Throwable e) {
+                    // a no-op if the future was cancelled
+                    out.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            out.completeExceptionally(e);
+        }
         return out;
     }
 
-    private static void delakefyStreamGraph(StreamGraph streamGraph, Map<PointD, Set<PointD>> graph, Map<PointD, Double> heightMap, Set<PointD> drains) {
-        if (drains.containsAll(streamGraph.roots))
-            return;
+    /**
+     * Computes an eroded heightmap for every settings in a sweep over one geometry, sharing the packed geometry and
+     * its outlets between the variants. Variants are eroded concurrently on an executor, each worker holding a single
+     * variant in memory at a time, and their results are handed to a consumer on the calling thread as soon as they
+     * finish. At most as many finished results as the parallelism wait for the consumer, the workers waiting in turn
+     * once they are all taken, so that a slow consumer bounds the memory held by the sweep. <br/>
+     * The calling thread blocks until the sweep is over, so it must not be one the executor needs to run the workers.
+     *
+     * @param settings       The parameters of every variant
+     * @param eroderGeometry The Voronoi tessellated and Delaunay triangulated area to erode
+     * @param executor       The executor running the CPU-bound erosions, typically a bounded pool
+     * @param parallelism    The maximum number of variants eroded at once
+     * @param consumer       Called with the results and index of every variant, in order of completion
+     */
+    public static void erodeAll(List<EroderSettings> settings, EroderGeometry eroderGeometry, Executor executor,
+                                int parallelism, ObjIntConsumer<EroderResults> consumer) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("The parallelism " + parallelism + " is not positive");
+        BitSet outlets = eroderGeometry.outlets();
+        int count = settings.size();
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        // every worker holds at most one result it could not hand over yet
+        BlockingQueue<SweepResult> finished = new ArrayBlockingQueue<>(parallelism);
+        try {
+            for (int worker = 0; worker < Math.min(parallelism, count); worker++) {
+                executor.execute(() -> {
+                    for (int variant; !failed.get() && (variant = next.getAndIncrement()) < count; ) {
+                        SweepResult result;
+                        try {
+                            result = new SweepResult(variant, erode(settings.get(variant), eroderGeometry,
+                                    NodeStore.heap(), outlets, -1, failed::get), null);
+                        } catch (CancellationException e) {
+                            return;
+                        } catch (Throwable e) {
+                            failed.set(true);
+                            result = new SweepResult(variant, null, e);
+                        }
+                        try {
+                            finished.put(result);
+                        } catch (InterruptedException e) {
+                            failed.set(true);
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                });
+            }
 
-        LakePassMap lakePassMap = getLakePassMap(streamGraph, graph, heightMap);
-        SortedSet<LakePass> candidates = new TreeSet<>();
-        for (PointD drain : drains) {
-            candidates.addAll(lakePassMap.getTo(drain).values());
-            lakePassMap.removeAll(lakePassMap.getFrom(drain).values());
+            for (int received = 0; received < count; received++) {
+                SweepResult result = finished.take();
+                if (result.error != null) {
+                    if (result.error instanceof RuntimeException e) throw e;
+                    if (result.error instanceof Error e) throw e;
+                    throw new CompletionException(result.error);
+                }
+                consumer.accept(result.results, result.variant);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while eroding a sweep");
+        } finally {
+            // the remaining workers stop at the start of their next phase, those waiting to hand over a result
+            // finding room for it
+            failed.set(true);
+            finished.clear();
         }
+    }
 
-        while (!candidates.isEmpty()) {
-            LakePass active = candidates.first();
-            candidates.addAll(lakePassMap.getTo(active.rootFrom()).values());
-            candidates.removeAll(lakePassMap.getFrom(active.rootFrom()).values());
-            lakePassMap.removeAll(lakePassMap.getFrom(active.rootFrom()).values());
-            candidates.remove(active);
-
-            streamGraph.get(active.passTo()).add(active.rootFrom());
-            streamGraph.roots.remove(active.rootFrom());
-        }
+    private record SweepResult(int variant, EroderResults results, Throwable error) {
     }
 
-    private static LakePassMap getLakePassMap(StreamGraph streamGraph, Map<PointD, Set<PointD>> graph, Map<PointD, Double> heightMap) {
-        Map<PointD, PointD> rootMap = new HashMap<>();
-        Queue<Map.Entry<PointD, PointD>> rootQueue = new ArrayDeque<>(
-                streamGraph.roots.stream().collect(Collectors.toMap(k -> k, v -> v)).entrySet()
-        );
-        while (!rootQueue.isEmpty()) {
-            Map.Entry<PointD, PointD> current = rootQueue.poll();
-            rootMap.put(current.getKey(), current.getValue());
-            for (PointD neighbor : streamGraph.get(current.getKey())) {
-                rootQueue.add(new AbstractMap.SimpleImmutableEntry<>(neighbor, current.getValue()));
+    // incremental if the tolerance is not negative, stops with a CancellationException at the start of the phase
+    // following cancellation
+    private static EroderResults erode(EroderSettings settings, EroderGeometry eroderGeometry, NodeStore store,
+                                       BitSet outlets, double tolerance, BooleanSupplier cancelled) {
+        long start = Metrics.start();
+        long allocated = Metrics.allocatedBytes();
+        PackedGeometry geometry = eroderGeometry.packed();
+        int n = geometry.size();
+        DoubleBuffer[] heights = {store.doubles(n), store.doubles(n)};
+        DoubleBuffer erosionRates = store.doubles(n);
+        DoubleBuffer drainage = store.doubles(n);
+        StreamGraph streamGraph = new StreamGraph(store, n);
+        try {
+            for (int node = 0; node < n; node++) {
+                heights[0].put(node, settings.initialHeightLambda().apply(geometry.nodes[node]));
+                erosionRates.put(node, settings.erosionRateLambda().apply(geometry.nodes[node]));
+            }
+            int converged = iterate(settings, geometry, eroderGeometry.minDistance, store, outlets, tolerance,
+                    cancelled, heights, erosionRates, streamGraph, drainage);
+
+            computeBasins(streamGraph, streamGraph.scratch);
+            EroderResults out = new EroderResults(eroderGeometry, toArray(heights[0], n),
+                    toArray(streamGraph.receivers, n), toArray(drainage, n), toArray(streamGraph.scratch, n),
+                    toArray(streamGraph.stack, n), converged);
+            if (Metrics.ENABLED) {
+                Metrics.stop("erode.nanos", start);
+                Metrics.histogram("erode.allocatedBytes").record(Metrics.allocatedBytes() - allocated);
+                Metrics.counter("erode.iterations").add(converged >= 0 ? converged : settings.maxIterations());
             }
+            return out;
+        } finally {
+            store.release(heights[0]);
+            store.release(heights[1]);
+            store.release(erosionRates);
+            store.release(drainage);
+            streamGraph.release(store);
         }
+    }
 
-        final LakePassMap out = new LakePassMap();
-        for (PointD node : streamGraph.keySet()) {
-            PointD nodeRoot = rootMap.get(node);
-            for (PointD neighbor : graph.get(node)) {
-                PointD neighborRoot = rootMap.get(neighbor);
-                if (nodeRoot == neighborRoot) continue;
-                double passHeight = Math.max(heightMap.get(node), heightMap.get(neighbor));
-                if (Objects.isNull(out.getFrom(nodeRoot)) || Objects.isNull(out.getFrom(nodeRoot).get(neighborRoot)) ||
-                        passHeight < out.getFrom(nodeRoot).get(neighborRoot).passHeight()) {
-                    LakePass lp = new LakePass(nodeRoot, neighborRoot, node, neighbor, passHeight);
-                    out.put(lp);
-                    out.put(LakePassMap.anti(lp));
+    // iterates from the heights in the first column, swapping the columns so that the final heights end up in the
+    // first one along with the final stream graph and drainage, and returns the iteration at which the heights
+    // converged, -1 if they didn't
+    private static int iterate(EroderSettings settings, PackedGeometry geometry, double minDistance, NodeStore store,
+                               BitSet outlets, double tolerance, BooleanSupplier cancelled, DoubleBuffer[] columns,
+                               DoubleBuffer erosionRates, StreamGraph streamGraph, DoubleBuffer drainage) {
+        int n = geometry.size();
+        DoubleBuffer heights = columns[0];
+        DoubleBuffer newHeights = columns[1];
+        ActiveSet active = null;
+        try {
+            if (tolerance >= 0) active = new ActiveSet(store, n, tolerance);
+
+            boolean converged = false;
+            int i;
+            for (i = 0; i < settings.maxIterations() && !converged; i++) {
+                ErodePhaseEvent event = beginPhase(cancelled);
+                long[] phaseStart = {Metrics.start(), Metrics.allocatedBytes()};
+                boolean rebuilt = true;
+                if (active == null) {
+                    buildInitialStreamGraph(streamGraph, geometry, heights);
+                } else if (i == 0) {
+                    buildInitialStreamGraph(streamGraph, geometry, heights);
+                    active.lowest.put(0, streamGraph.receivers, 0, n);
+                } else {
+                    rebuilt = active.updateLowest(geometry, heights)
+                            || active.lakes > 0 && active.passesMoved(geometry, heights);
+                    if (rebuilt) {
+                        active.rebuilding(streamGraph, drainage);
+                        streamGraph.receivers.put(0, active.lowest, 0, n);
+                        streamGraph.index();
+                    }
+                }
+                endPhase(event, "streamGraph", i, streamGraph, 0, phaseStart);
+
+                event = beginPhase(cancelled);
+                int lakes;
+                if (active == null) {
+                    lakes = delakefyStreamGraph(streamGraph, geometry, heights, outlets);
+                } else if (rebuilt) {
+                    lakes = delakefyStreamGraph(streamGraph, geometry, heights, outlets, active.sinks);
+                    active.resolved(heights, lakes);
+                } else {
+                    lakes = active.lakes;
                 }
+                endPhase(event, "lakes", i, streamGraph, lakes, phaseStart);
+
+                event = beginPhase(cancelled);
+                if (rebuilt) computeDrainage(streamGraph, geometry.areas, drainage);
+                if (rebuilt && active != null && i > 0) active.rebuilt(streamGraph, drainage, i);
+                endPhase(event, "drainage", i, streamGraph, lakes, phaseStart);
+
+                event = beginPhase(cancelled);
+                computeNewHeights(i, heights, drainage, erosionRates, streamGraph, settings, geometry,
+                        minDistance, newHeights, active);
+                endPhase(event, "heights", i, streamGraph, lakes, phaseStart);
+                if (active != null) {
+                    converged = active.maxChange <= settings.convergenceThreshold();
+                } else {
+                    converged = true;
+                    for (int node = 0; node < n; node++)
+                        if (Math.abs(newHeights.get(node) - heights.get(node)) > settings.convergenceThreshold()) {
+                            converged = false;
+                            break;
+                        }
+                }
+                DoubleBuffer swap = heights;
+                heights = newHeights;
+                newHeights = swap;
             }
+            columns[0] = heights;
+            columns[1] = newHeights;
+            return converged ? i : -1;
+        } finally {
+            if (active != null) active.release(store);
         }
+    }
+
+    private static ErodePhaseEvent beginPhase(BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean())
+            throw new CancellationException("Erosion cancelled");
+        ErodePhaseEvent event = new ErodePhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    // commits the event and records the duration and allocations of the phase, moving the start to the next phase
+    private static void endPhase(ErodePhaseEvent event, String phase, int iteration, StreamGraph streamGraph,
+                                 int lakes, long[] start) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.iteration = iteration;
+            event.phase = phase;
+            event.nodeCount = streamGraph.size;
+            event.rootCount = streamGraph.rootCount;
+            event.lakeCount = lakes;
+            event.commit();
+        }
+        if (!Metrics.ENABLED) return;
+        long now = System.nanoTime(), allocated = Metrics.allocatedBytes();
+        Metrics.histogram("erode.phase." + phase + ".nanos").record(now - start[0]);
+        Metrics.histogram("erode.phase." + phase + ".allocatedBytes").record(allocated - start[1]);
+        start[0] = now;
+        start[1] = allocated;
+    }
+
+    // the backing array of a heap column, a copy of an off-heap one
+    private static double[] toArray(DoubleBuffer column, int length) {
+        if (column.hasArray() && column.arrayOffset() == 0 && column.array().length == length)
+            return column.array();
+        double[] out = new double[length];
+        column.get(0, out);
         return out;
     }
 
-    private static Map<PointD, Double> getDrainageMap(StreamGraph streamGraph, Map<PointD, Double> areaMap) {
-        final Map<PointD, Double> out = new HashMap<>(streamGraph.size());
-        for (PointD root : streamGraph.roots)
-            getDrainageMap(streamGraph, areaMap, out, root);
+    private static int[] toArray(IntBuffer column, int length) {
+        if (column.hasArray() && column.arrayOffset() == 0 && column.array().length == length)
+            return column.array();
+        int[] out = new int[length];
+        column.get(0, out);
         return out;
     }
 
-    private static double getDrainageMap(StreamGraph streamGraph, Map<PointD, Double> areaMap,
-                                         Map<PointD, Double> out, PointD current) {
-        double currentArea = areaMap.get(current);
-        for (PointD neighbor : streamGraph.get(current))
-            currentArea += getDrainageMap(streamGraph, areaMap, out, neighbor);
-        out.put(current, currentArea);
-        return currentArea;
+    static void buildInitialStreamGraph(StreamGraph streamGraph, PackedGeometry geometry, DoubleBuffer heights) {
+        int n = geometry.size();
+        IntBuffer receivers = streamGraph.receivers;
+        for (int node = 0; node < n; node++) {
+            int lowest = node;
+            double lowestHeight = heights.get(node);
+            for (int j = geometry.adjacencyStart[node]; j < geometry.adjacencyStart[node + 1]; j++) {
+                int neighbor = geometry.adjacency[j];
+                double height = heights.get(neighbor);
+                if (height < lowestHeight) {
+                    lowest = neighbor;
+                    lowestHeight = height;
+                }
+            }
+            receivers.put(node, lowest);
+        }
+        streamGraph.index();
+    }
+
+    // returns the number of lakes, roots which are not outlets
+    static int delakefyStreamGraph(StreamGraph streamGraph, PackedGeometry geometry, DoubleBuffer heights, BitSet outlets) {
+        return delakefyStreamGraph(streamGraph, geometry, heights, outlets, streamGraph.scratch);
     }
 
-    private static Map<PointD, Double> computeNewHeightMap(int t, Map<PointD, Double> oldHeightMap,
-                                                           Map<PointD, Double> drainageMap, Map<PointD, Double> erosionRateMap,
-                                                           StreamGraph streamGraph, EroderSettings settings, double minDistance) {
-        final Map<PointD, Double> out = new HashMap<>(streamGraph.size());
-        Queue<Map.Entry<PointD, PointD>> downstreamQueue = new ArrayDeque<>(
-                streamGraph.roots.stream().collect(Collectors.toMap(k -> k, v -> PointD.EMPTY)).entrySet()
-        );
+    // also leaves the root every node drains into before resolution in sinks if there are lakes, which may be the
+    // scratch column of the stream graph
+    static int delakefyStreamGraph(StreamGraph streamGraph, PackedGeometry geometry, DoubleBuffer heights,
+                                   BitSet outlets, IntBuffer sinks) {
+        IntBuffer receivers = streamGraph.receivers;
+        IntBuffer stack = streamGraph.stack;
+        int lakes = 0;
+        for (int r = 0; r < streamGraph.rootCount; r++)
+            if (!outlets.get(stack.get(r))) lakes++;
+        if (lakes == 0)
+            return 0;
+
+        // Prim's algorithm over the basins, growing the drained set through its lowest pass. Outlets are
+        // drained from the start and every other root once it is given a receiver.
+        LakePasses lakePasses = new LakePasses(streamGraph, geometry, heights, outlets, sinks);
+        PriorityQueue<Integer> candidates = new PriorityQueue<>(lakePasses);
+        for (int r = 0; r < streamGraph.rootCount; r++) {
+            int root = stack.get(r);
+            if (outlets.get(root)) lakePasses.offerTo(root, candidates);
+        }
+
+        while (!candidates.isEmpty()) {
+            int active = candidates.poll();
+            int rootFrom = lakePasses.rootFrom[active];
+            if (lakePasses.isDrained(rootFrom)) continue;
+            receivers.put(rootFrom, lakePasses.passTo[active]);
+            lakePasses.offerTo(rootFrom, candidates);
+        }
+        streamGraph.index();
+        return lakes;
+    }
+
+    static void computeDrainage(StreamGraph streamGraph, double[] areas, DoubleBuffer out) {
+        IntBuffer receivers = streamGraph.receivers;
+        IntBuffer stack = streamGraph.stack;
+        out.put(0, areas);
+        for (int k = streamGraph.size - 1; k >= streamGraph.rootCount; k--) {
+            int node = stack.get(k);
+            int receiver = receivers.get(node);
+            out.put(receiver, out.get(receiver) + out.get(node));
+        }
+    }
+
+    static void computeNewHeights(int t, DoubleBuffer oldHeights, DoubleBuffer drainage, DoubleBuffer erosionRates,
+                                  StreamGraph streamGraph, EroderSettings settings, PackedGeometry geometry,
+                                  double minDistance, DoubleBuffer out) {
+        computeNewHeights(t, oldHeights, drainage, erosionRates, streamGraph, settings, geometry, minDistance, out,
+                null);
+    }
 
-        while (!downstreamQueue.isEmpty()) {
-            Map.Entry<PointD, PointD> entry = downstreamQueue.poll();
-            PointD current = entry.getKey();
-            PointD downstream = entry.getValue();
+    // skips the settled nodes of the active set if any, recording the changes into it
+    static void computeNewHeights(int t, DoubleBuffer oldHeights, DoubleBuffer drainage, DoubleBuffer erosionRates,
+                                  StreamGraph streamGraph, EroderSettings settings, PackedGeometry geometry,
+                                  double minDistance, DoubleBuffer out, ActiveSet active) {
+        IntBuffer receivers = streamGraph.receivers;
+        IntBuffer stack = streamGraph.stack;
+        if (active != null) active.clearChanges();
+        for (int position = 0; position < streamGraph.size; position++) {
+            int current = stack.get(position);
+            int downstream = receivers.get(current);
+            if (active != null && active.isSettled(current, downstream, oldHeights, out, t)) {
+                out.put(current, oldHeights.get(current));
+                continue;
+            }
 
             double distance;
             double downstreamHeight;
-            double oldHeight = oldHeightMap.get(current);
-            if (downstream == PointD.EMPTY) {
+            double oldHeight = oldHeights.get(current);
+            if (downstream == current) {
                 distance = minDistance;
                 downstreamHeight = oldHeight;
             } else {
-                distance = current.subtract(downstream).length();
+                double dx = geometry.xs[current] - geometry.xs[downstream];
+                double dy = geometry.ys[current] - geometry.ys[downstream];
+                distance = Math.sqrt(dx * dx + dy * dy);
                 downstreamHeight = out.get(downstream);
             }
-            double uplift =settings.upliftLambda().apply(current, t);
-            double drainageArea = drainageMap.get(current);
+            PointD point = geometry.nodes[current];
+            double uplift = settings.upliftLambda().apply(point, t);
+            double drainageArea = drainage.get(current);
             double m = settings.mnRatio();
-            double k = erosionRateMap.get(current);
+            double k = erosionRates.get(current);
             double dt = settings.timeStep();
 
             double erosionImportance = k * Math.pow(drainageArea, m) / distance;
             double newHeight = (oldHeight + dt * (uplift + erosionImportance * downstreamHeight)) / (1 + erosionImportance * dt);
             double slope = (newHeight - downstreamHeight) / distance;
-            double maxSlope = Math.tan(Math.toRadians(settings.maxSlopeDegreesLambda().apply(current, newHeight)));
+            double maxSlope = Math.tan(Math.toRadians(settings.maxSlopeDegreesLambda().apply(point, newHeight)));
             if (slope > maxSlope) newHeight = downstreamHeight + distance * maxSlope;
             out.put(current, newHeight);
-
-            for (PointD neighbor : streamGraph.get(current))
-                downstreamQueue.add(new AbstractMap.SimpleImmutableEntry<>(neighbor, current));
+            if (active != null) active.record(current, oldHeight, newHeight, t);
         }
-        return out;
     }
 
-    private static Set<EroderEdge> getEroderEdges(StreamGraph streamGraph, Map<PointD, Double> drainageMap) {
-        Set<EroderEdge> out = new HashSet<>();
-        streamGraph.forEach((node, neighbors) -> {
-            for (PointD neighbor : neighbors)
-                out.add(new EroderEdge(node, neighbor, drainageMap.get(neighbor), drainageMap.get(node)));
-        });
-        return out;
-    }
-
-    private static class StreamGraph extends HashMap<PointD, Set<PointD>> {
-        public final Set<PointD> roots = new HashSet<>();
+    // the root every node drains into
+    static void computeBasins(StreamGraph streamGraph, IntBuffer out) {
+        IntBuffer receivers = streamGraph.receivers;
+        IntBuffer stack = streamGraph.stack;
+        for (int k = 0; k < streamGraph.size; k++) {
+            int node = stack.get(k);
+            int receiver = receivers.get(node);
+            out.put(node, receiver == node ? node : out.get(receiver));
+        }
     }
 
-    private record LakePass(PointD rootFrom, PointD rootTo, PointD passFrom, PointD passTo,
-                            double passHeight) implements Comparable<LakePass> {
-        @Override
-        public int compareTo(LakePass lakePass) {
-            if (passHeight != lakePass.passHeight)
-                return Double.compare(passHeight, lakePass.passHeight);
-            else if (!Objects.equals(this, lakePass))
-                return Double.compare(this.hashCode(), lakePass.hashCode());
-            else
-                return 0;
+    /**
+     * A forest of nodes each draining into its receiver, roots being their own receiver, its columns living in a
+     * {@link NodeStore} and being reused from one iteration to the next
+     */
+    static class StreamGraph {
+        final int size;
+        final IntBuffer receivers;
+        // the donors of node i, from donorStart[i] inclusive to donorStart[i + 1] exclusive
+        final IntBuffer donorStart;
+        final IntBuffer donors;
+        // every node ordered so that each comes after its receiver, the roots first
+        final IntBuffer stack;
+        // the basins, then the passes into each basin, of the lake resolution
+        final IntBuffer scratch;
+        int rootCount;
+
+        StreamGraph(NodeStore store, int size) {
+            this.size = size;
+            this.receivers = store.ints(size);
+            this.donorStart = store.ints(size + 1);
+            this.donors = store.ints(size);
+            this.stack = store.ints(size);
+            this.scratch = store.ints(size + 1);
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            LakePass lakePass = (LakePass) o;
-            return Double.compare(passHeight, lakePass.passHeight) == 0 && Objects.equals(rootFrom, lakePass.rootFrom) && Objects.equals(rootTo, lakePass.rootTo);
+        void index() {
+            int n = size;
+            // counts the donors of every node, then fills each range from its end
+            for (int node = 0; node <= n; node++)
+                donorStart.put(node, 0);
+            for (int node = 0; node < n; node++) {
+                int receiver = receivers.get(node);
+                if (receiver != node) donorStart.put(receiver, donorStart.get(receiver) + 1);
+            }
+            for (int node = 1; node < n; node++)
+                donorStart.put(node, donorStart.get(node) + donorStart.get(node - 1));
+            donorStart.put(n, n == 0 ? 0 : donorStart.get(n - 1));
+            for (int node = n - 1; node >= 0; node--) {
+                int receiver = receivers.get(node);
+                if (receiver == node) continue;
+                int slot = donorStart.get(receiver) - 1;
+                donorStart.put(receiver, slot);
+                donors.put(slot, node);
+            }
+
+            int tail = 0;
+            for (int node = 0; node < n; node++)
+                if (receivers.get(node) == node) stack.put(tail++, node);
+            rootCount = tail;
+            for (int head = 0; head < tail; head++) {
+                int node = stack.get(head);
+                for (int j = donorStart.get(node); j < donorStart.get(node + 1); j++)
+                    stack.put(tail++, donors.get(j));
+            }
         }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(rootFrom, rootTo, passHeight);
+        void release(NodeStore store) {
+            store.release(receivers);
+            store.release(donorStart);
+            store.release(donors);
+            store.release(stack);
+            store.release(scratch);
         }
     }
 
-    private static class LakePassMap {
-        private final Map<PointD, Map<PointD, LakePass>> lakePassesByFrom = new HashMap<>();
-        private final Map<PointD, Map<PointD, LakePass>> lakePassesByTo = new HashMap<>();
-
-        public static LakePass anti(LakePass lakePass) {
-            return new LakePass(lakePass.rootTo(), lakePass.rootFrom(), lakePass.passTo(), lakePass.passFrom(), lakePass.passHeight());
-        }
+    /**
+     * The lowest pass between every pair of adjacent basins, in both directions, ordered by pass height
+     */
+    private static class LakePasses implements Comparator<Integer> {
+        int[] rootFrom = new int[16];
+        int[] rootTo = new int[16];
+        int[] passTo = new int[16];
+        double[] passHeight = new double[16];
+        int count = 0;
+        // the passes into basin r, from toStart[r] inclusive to toStart[r + 1] exclusive
+        final IntBuffer toStart;
+        final int[] to;
+        private final IntBuffer receivers;
+        private final BitSet outlets;
+
+        LakePasses(StreamGraph streamGraph, PackedGeometry geometry, DoubleBuffer heights, BitSet outlets,
+                   IntBuffer basins) {
+            this.receivers = streamGraph.receivers;
+            this.outlets = outlets;
+            int n = geometry.size();
+            computeBasins(streamGraph, basins);
+            Map<Long, Integer> pairs = new HashMap<>();
+            for (int node = 0; node < n; node++) {
+                int nodeRoot = basins.get(node);
+                for (int j = geometry.adjacencyStart[node]; j < geometry.adjacencyStart[node + 1]; j++) {
+                    int neighbor = geometry.adjacency[j];
+                    int neighborRoot = basins.get(neighbor);
+                    if (nodeRoot == neighborRoot) continue;
+                    double height = Math.max(heights.get(node), heights.get(neighbor));
+                    Integer pass = pairs.get((long) nodeRoot * n + neighborRoot);
+                    if (pass == null) {
+                        pairs.put((long) nodeRoot * n + neighborRoot, count);
+                        pairs.put((long) neighborRoot * n + nodeRoot, count + 1);
+                        add(nodeRoot, neighborRoot, neighbor, height);
+                        add(neighborRoot, nodeRoot, node, height);
+                    } else if (height < passHeight[pass]) {
+                        int anti = pairs.get((long) neighborRoot * n + nodeRoot);
+                        passTo[pass] = neighbor;
+                        passHeight[pass] = height;
+                        passTo[anti] = node;
+                        passHeight[anti] = height;
+                    }
+                }
+            }
 
-        public Map<PointD, LakePass> getFrom(PointD pointD) {
-            return lakePassesByFrom.get(pointD);
+            // the basins are no longer needed here, the scratch column being reused for the ranges
+            toStart = streamGraph.scratch;
+            for (int r = 0; r <= n; r++)
+                toStart.put(r, 0);
+            for (int pass = 0; pass < count; pass++)
+                toStart.put(rootTo[pass], toStart.get(rootTo[pass]) + 1);
+            for (int r = 1; r < n; r++)
+                toStart.put(r, toStart.get(r) + toStart.get(r - 1));
+            toStart.put(n, count);
+            to = new int[count];
+            for (int pass = count - 1; pass >= 0; pass--) {
+                int slot = toStart.get(rootTo[pass]) - 1;
+                toStart.put(rootTo[pass], slot);
+                to[slot] = pass;
+            }
         }
 
-        public Map<PointD, LakePass> getTo(PointD pointD) {
-            return lakePassesByTo.get(pointD);
+        boolean isDrained(int root) {
+            return outlets.get(root) || receivers.get(root) != root;
         }
 
-        public void put(LakePass lakePass) {
-            lakePassesByFrom.putIfAbsent(lakePass.rootFrom(), new HashMap<>());
-            lakePassesByFrom.get(lakePass.rootFrom()).put(lakePass.rootTo(), lakePass);
-            lakePassesByTo.putIfAbsent(lakePass.rootTo(), new HashMap<>());
-            lakePassesByTo.get(lakePass.rootTo()).put(lakePass.rootFrom(), lakePass);
+        void offerTo(int root, PriorityQueue<Integer> candidates) {
+            for (int j = toStart.get(root); j < toStart.get(root + 1); j++)
+                if (!isDrained(rootFrom[to[j]])) candidates.add(to[j]);
         }
 
-        public void remove(LakePass lakePass) {
-            if (!Objects.isNull(lakePassesByFrom.get(lakePass.rootFrom())))
-                lakePassesByFrom.get(lakePass.rootFrom()).remove(lakePass.rootTo());
-            if (!Objects.isNull(lakePassesByTo.get(lakePass.rootTo())))
-                lakePassesByTo.get(lakePass.rootTo()).remove(lakePass.rootFrom());
+        @Override
+        public int compare(Integer a, Integer b) {
+            int byHeight = Double.compare(passHeight[a], passHeight[b]);
+            return byHeight != 0 ? byHeight : Integer.compare(a, b);
         }
 
-        public void removeAll(Collection<LakePass> lakePasses) {
-            for (LakePass lakePass : new HashSet<>(lakePasses))
-                remove(lakePass);
+        private void add(int from, int into, int pass, double height) {
+            if (count == rootFrom.length) {
+                rootFrom = Arrays.copyOf(rootFrom, 2 * count);
+                rootTo = Arrays.copyOf(rootTo, 2 * count);
+                passTo = Arrays.copyOf(passTo, 2 * count);
+                passHeight = Arrays.copyOf(passHeight, 2 * count);
+            }
+            rootFrom[count] = from;
+            rootTo[count] = into;
+            passTo[count] = pass;
+            passHeight[count] = height;
+            count++;
         }
     }
 }
@@ -0,0 +1,35 @@
+package com.github.keyboardcat1.erosio;
+
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.BitSet;
+
+/**
+ * The output of a local re-erosion by {@link Eroder#erode(EroderSettings, EroderResults, BitSet)}
+ *
+ * @param eroderResults The updated results, their columns being copies of the previous ones
+ * @param dirty         The IDs of the nodes whose height, receiver or drainage changed
+ */
+public record EroderEdit(EroderResults eroderResults, BitSet dirty) {
+    /**
+     * The rectangle bounding the dirty nodes, for invalidating what was sampled from the previous results over it
+     * such as with {@link com.github.keyboardcat1.erosio.interpolation.InterpolatorTileCache#invalidate(RectD)}
+     *
+     * @param margin The distance the rectangle is grown by on every side, at least the distance over which an
+     *               interpolator reads nodes, such as twice the geometry's minimum distance for a triangulation
+     * @return The grown bounding rectangle, null if no node changed
+     */
+    public RectD dirtyBounds(double margin) {
+        if (dirty.isEmpty()) return null;
+        PackedGeometry packed = eroderResults.packed();
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int node = dirty.nextSetBit(0); node >= 0; node = dirty.nextSetBit(node + 1)) {
+            minX = Math.min(minX, packed.xs[node]);
+            minY = Math.min(minY, packed.ys[node]);
+            maxX = Math.max(maxX, packed.xs[node]);
+            maxY = Math.max(maxY, packed.ys[node]);
+        }
+        return new RectD(minX - margin, minY - margin, maxX + margin, maxY + margin);
+    }
+}
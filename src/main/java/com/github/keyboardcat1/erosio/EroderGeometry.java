@@ -3,9 +3,11 @@ package com.github.keyboardcat1.erosio;
 import org.kynosarges.tektosyne.geometry.PointD;
 import org.kynosarges.tektosyne.geometry.RectD;
 
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * The geometry underlying a stream graph
@@ -24,15 +26,20 @@ public abstract class EroderGeometry {
      */
     public final double minDistance;
     /**
-     * The base graph defining whether water can flow between nodes
+     * The base graph defining whether water can flow between nodes, a read-only view of {@link #packed()} for
+     * geometries read from a file
      */
-    public final Map<PointD, Set<PointD>> graph = new HashMap<>();
+    public final Map<PointD, Set<PointD>> graph;
 
     /**
      * The mapping from every node to the surface area of the region closest to it
      */
     protected final Map<PointD, Double> areaMap = new HashMap<>();
 
+    private volatile PackedGeometry packed;
+    private volatile BitSet boundary;
+    private volatile BitSet outlets;
+
     /**
      * The geometry underlying a stream graph
      *
@@ -43,6 +50,15 @@ public abstract class EroderGeometry {
         this.boundingPolygon = boundingPolygon;
         this.rectBounds = RectD.circumscribe(this.boundingPolygon);
         this.minDistance = minDistance;
+        this.graph = new HashMap<>();
+    }
+
+    EroderGeometry(PointD[] boundingPolygon, double minDistance, PackedGeometry packed) {
+        this.boundingPolygon = boundingPolygon;
+        this.rectBounds = RectD.circumscribe(this.boundingPolygon);
+        this.minDistance = minDistance;
+        this.packed = packed;
+        this.graph = packed.graphView();
     }
 
     /**
@@ -54,6 +70,78 @@ public abstract class EroderGeometry {
         return graph.size();
     }
 
+    /**
+     * The nodes of the graph packed into primitive arrays, built on first use. The graph must not be modified
+     * afterwards.
+     *
+     * @return The {@link PackedGeometry} of this geometry
+     */
+    public PackedGeometry packed() {
+        PackedGeometry out = packed;
+        if (out == null) synchronized (this) {
+            if (packed == null) packed = new PackedGeometry(this);
+            out = packed;
+        }
+        return out;
+    }
+
+    /**
+     * The nodes lying along the bounding polygon, within {@link #minDistance} of its outline, computed on first use.
+     * Concave outlines are followed, falling back to the vertices of the convex hull of the nodes if no node lies along
+     * the outline. The set is shared and must not be modified.
+     *
+     * @return The IDs of the boundary nodes in {@link #packed()}
+     */
+    public BitSet boundary() {
+        BitSet out = boundary;
+        if (out == null) synchronized (this) {
+            if (boundary == null) {
+                BitSet near = Boundaries.near(packed(), boundingPolygon, minDistance);
+                boundary = near.isEmpty() ? Boundaries.convexHull(packed()) : near;
+            }
+            out = boundary;
+        }
+        return out;
+    }
+
+    /**
+     * The nodes water may leave the domain through, which erosion never raises lakes behind: the custom outlets if
+     * set, otherwise the {@link #boundary()}. The set is shared and must not be modified.
+     *
+     * @return The IDs of the outlets in {@link #packed()}
+     */
+    public BitSet outlets() {
+        BitSet out = outlets;
+        return out != null ? out : boundary();
+    }
+
+    // the custom outlets, null when water leaves the domain through the boundary
+    BitSet customOutlets() {
+        return outlets;
+    }
+
+    /**
+     * Sets the nodes water may leave the domain through, such as the nodes under the sea, in place of the boundary
+     *
+     * @param outlets The IDs of the outlets in {@link #packed()}, copied, or null to drain through the boundary again
+     */
+    public void setOutlets(BitSet outlets) {
+        this.outlets = outlets == null ? null : (BitSet) outlets.clone();
+    }
+
+    /**
+     * Sets the nodes water may leave the domain through from a mask, such as a sea mask, in place of the boundary
+     *
+     * @param mask Whether water may leave the domain through a node
+     */
+    public void setOutlets(Predicate<PointD> mask) {
+        PointD[] nodes = packed().nodes;
+        BitSet out = new BitSet(nodes.length);
+        for (int node = 0; node < nodes.length; node++)
+            if (mask.test(nodes[node])) out.set(node);
+        this.outlets = out;
+    }
+
     /**
      * Converts a {@link RectD} to a polygon
      *
@@ -2,16 +2,19 @@ package com.github.keyboardcat1.erosio;
 
 import org.kynosarges.tektosyne.geometry.PointD;
 
-import java.util.Map;
-import java.util.Optional;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
- * The output of {@link Eroder}
+ * The output of {@link Eroder}, stored as primitive columns aligned with the node order of
+ * {@link EroderGeometry#packed()}. The columns are shared and must not be modified.
  */
 public class EroderResults {
     /**
-     * The mapping from each stream node to its height
+     * The mapping from each stream node to its height, a view of {@link #heights}
      */
     public final Map<PointD, Double> heightMap;
     /**
@@ -23,7 +26,7 @@ public class EroderResults {
      */
     public final double minHeight;
     /**
-     * The set of {@link EroderEdge}s forming the fluvial network
+     * The set of {@link EroderEdge}s forming the fluvial network, a view of {@link #receivers} and {@link #drainage}
      */
     public final Set<EroderEdge> eroderEdges;
     /**
@@ -34,17 +37,290 @@ public class EroderResults {
      * The iteration at which the heightmap converged, -1 if it didn't converge
      */
     public final int converged;
+    /**
+     * The height of every node
+     */
+    public final double[] heights;
+    /**
+     * The ID of the node every node drains into, outlets draining into themselves
+     */
+    public final int[] receivers;
+    /**
+     * The area drained through every node, its own area included
+     */
+    public final double[] drainage;
+    /**
+     * The ID of the outlet every node eventually drains into
+     */
+    public final int[] basins;
+
+    // every node ordered so that each comes after its receiver
+    final int[] downstreamOrder;
 
-    EroderResults(Map<PointD, Double> heightMap, Set<EroderEdge> eroderEdges, EroderGeometry eroderGeometry, int converged) {
-        this.heightMap = heightMap;
-        this.eroderEdges = eroderEdges;
+    EroderResults(EroderGeometry eroderGeometry, double[] heights, int[] receivers, double[] drainage, int[] basins,
+                  int[] downstreamOrder, int converged) {
         this.eroderGeometry = eroderGeometry;
+        this.heights = heights;
+        this.receivers = receivers;
+        this.drainage = drainage;
+        this.basins = basins;
+        this.downstreamOrder = downstreamOrder;
         this.converged = converged;
 
-        Optional<Double> max = heightMap.values().stream().max(Double::compareTo);
-        assert max.isPresent();
-        this.maxHeight = max.get();
-        Optional<Double> min = heightMap.values().stream().min(Double::compareTo);
-        this.minHeight = min.get();
+        assert heights.length > 0;
+        double max = Double.NEGATIVE_INFINITY, min = Double.POSITIVE_INFINITY;
+        for (double height : heights) {
+            if (height > max) max = height;
+            if (height < min) min = height;
+        }
+        this.maxHeight = max;
+        this.minHeight = min;
+
+        this.heightMap = new HeightMap();
+        this.eroderEdges = new EdgeSet();
+    }
+
+    /**
+     * The {@link PackedGeometry} the columns are aligned with
+     *
+     * @return The packed geometry of {@link #eroderGeometry}
+     */
+    public PackedGeometry packed() {
+        return eroderGeometry.packed();
+    }
+
+    /**
+     * The {@link EroderEdge} from a node to its receiver
+     *
+     * @param node The ID of the upstream node
+     * @return The edge draining the node, null if the node is an outlet
+     */
+    public EroderEdge edge(int node) {
+        int receiver = receivers[node];
+        if (receiver == node) return null;
+        PointD[] nodes = packed().nodes;
+        return new EroderEdge(nodes[receiver], nodes[node], drainage[node], drainage[receiver]);
+    }
+
+    /**
+     * The {@link EroderEdge}s carrying more than a volume of water, computed as the stream is consumed
+     *
+     * @param minVolume The volume of water the destination of a returned edge must exceed
+     * @return The matching edges in no particular order
+     */
+    public Stream<EroderEdge> eroderEdges(double minVolume) {
+        return IntStream.range(0, receivers.length)
+                .filter(node -> isRiver(node, minVolume))
+                .mapToObj(this::edge);
+    }
+
+    /**
+     * The {@link EroderEdge}s carrying more than a volume of water, ordered so that every edge comes before the
+     * edge water flows through next
+     *
+     * @param minVolume The volume of water the destination of a returned edge must exceed
+     * @return The matching edges in flow order
+     */
+    public Stream<EroderEdge> eroderEdgesInFlowOrder(double minVolume) {
+        int n = downstreamOrder.length;
+        return IntStream.range(0, n)
+                .map(k -> downstreamOrder[n - 1 - k])
+                .filter(node -> isRiver(node, minVolume))
+                .mapToObj(this::edge);
+    }
+
+    /**
+     * The {@link EroderEdge}s carrying more than a volume of water, packed into primitive arrays in flow order
+     *
+     * @param minVolume The volume of water the destination of a returned edge must exceed
+     * @return The matching edges as {@link PackedEdges}
+     */
+    public PackedEdges packEdges(double minVolume) {
+        int count = 0;
+        for (int node = 0; node < receivers.length; node++)
+            if (isRiver(node, minVolume)) count++;
+        PackedEdges out = new PackedEdges(packed(), count);
+        int i = 0;
+        for (int k = downstreamOrder.length - 1; k >= 0; k--) {
+            int node = downstreamOrder[k];
+            if (!isRiver(node, minVolume)) continue;
+            int receiver = receivers[node];
+            out.origins[i] = receiver;
+            out.destinations[i] = node;
+            out.volumeOrigins[i] = drainage[node];
+            out.volumeDestinations[i] = drainage[receiver];
+            i++;
+        }
+        return out;
+    }
+
+    /**
+     * Assembles the rivers into polylines running between confluences
+     *
+     * @param minVolume The area a node must drain more than to be part of a river
+     * @param tolerance The largest distance a removed vertex may lie from its simplified polyline, 0 to keep every vertex
+     * @return The rivers as a {@link RiverNetwork}
+     */
+    public RiverNetwork rivers(double minVolume, double tolerance) {
+        return new RiverNetwork(this, minVolume, tolerance);
+    }
+
+    /**
+     * Computes the distance from every node to the closest river
+     *
+     * @param minVolume The area a node must drain more than to be part of a river
+     * @return The distances as a {@link RiverDistanceField}
+     */
+    public RiverDistanceField riverDistances(double minVolume) {
+        return new RiverDistanceField(this, minVolume);
+    }
+
+    /**
+     * Indexes the drainage basins of {@link #basins}
+     *
+     * @return The basins as {@link Watersheds}
+     */
+    public Watersheds watersheds() {
+        return new Watersheds(this);
+    }
+
+    /**
+     * The path water takes from a node down to its outlet
+     *
+     * @param node The ID of the node the path starts on
+     * @return The IDs of the nodes along the path, from the node itself to its outlet
+     */
+    public int[] flowPath(int node) {
+        int length = 1;
+        for (int current = node; receivers[current] != current; current = receivers[current]) length++;
+        int[] out = new int[length];
+        out[0] = node;
+        for (int i = 1; i < length; i++) out[i] = receivers[out[i - 1]];
+        return out;
+    }
+
+    /**
+     * Writes the results along with their geometry to a versioned binary file
+     *
+     * @param file The file to write, replaced if it exists
+     * @throws IOException If the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        ResultsFile.write(this, file);
+    }
+
+    /**
+     * Reads back results written by {@link #save(Path)} in bulk, copying every column of the file to the heap without
+     * building any map, so that loading costs reading and allocating the whole file once but nothing is tessellated
+     * or sampled again. Every {@link com.github.keyboardcat1.erosio.interpolation.Interpolator} can be constructed over
+     * the returned results, whose geometry's graph is a read-only view of its packed arrays.
+     *
+     * @param file The results file
+     * @return The stored results
+     * @throws IOException If the file cannot be read or is not a results file
+     */
+    public static EroderResults load(Path file) throws IOException {
+        return ResultsFile.read(file);
+    }
+
+    private boolean isRiver(int node, double minVolume) {
+        int receiver = receivers[node];
+        return receiver != node && drainage[receiver] > minVolume;
+    }
+
+    private class HeightMap extends AbstractMap<PointD, Double> {
+        @Override
+        public Double get(Object key) {
+            int node = key instanceof PointD point ? packed().indexOf(point) : -1;
+            return node < 0 ? null : heights[node];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof PointD point && packed().indexOf(point) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return heights.length;
+        }
+
+        @Override
+        public Set<Entry<PointD, Double>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<PointD, Double>> iterator() {
+                    PointD[] nodes = packed().nodes;
+                    return new Iterator<>() {
+                        private int node = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return node < nodes.length;
+                        }
+
+                        @Override
+                        public Entry<PointD, Double> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            Entry<PointD, Double> out = new SimpleImmutableEntry<>(nodes[node], heights[node]);
+                            node++;
+                            return out;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return heights.length;
+                }
+            };
+        }
+    }
+
+    private class EdgeSet extends AbstractSet<EroderEdge> {
+        private int size = -1;
+
+        @Override
+        public Iterator<EroderEdge> iterator() {
+            return new Iterator<>() {
+                private int node = advance(0);
+
+                @Override
+                public boolean hasNext() {
+                    return node < receivers.length;
+                }
+
+                @Override
+                public EroderEdge next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    EroderEdge out = edge(node);
+                    node = advance(node + 1);
+                    return out;
+                }
+
+                private int advance(int from) {
+                    while (from < receivers.length && receivers[from] == from) from++;
+                    return from;
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof EroderEdge edge)) return false;
+            int node = packed().indexOf(edge.destination());
+            return node >= 0 && edge.equals(edge(node));
+        }
+
+        @Override
+        public int size() {
+            if (size < 0) {
+                int count = 0;
+                for (int node = 0; node < receivers.length; node++)
+                    if (receivers[node] != node) count++;
+                size = count;
+            }
+            return size;
+        }
     }
-}
\ No newline at end of file
+}
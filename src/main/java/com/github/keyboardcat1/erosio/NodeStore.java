@@ -0,0 +1,213 @@
+package com.github.keyboardcat1.erosio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Where {@link Eroder} keeps its per-node state while eroding: the heights, erosion rates, drainage and stream graph
+ * of the current iteration. Off-heap stores keep that state out of the Java heap, so that huge domains neither compete
+ * with the rest of the application for heap nor lengthen garbage collection pauses. <br/>
+ * The state of an erosion is released as soon as it finishes, its {@link EroderResults} being copied back to the
+ * heap. A store may be shared by concurrent erosions, closing it forbidding further use once none of them is running.
+ */
+public abstract class NodeStore implements Closeable {
+    // a direct buffer holds at most 2GB
+    private static final int MAX_BYTES = Integer.MAX_VALUE - 8;
+
+    private final Map<Buffer, Allocation> allocations = new IdentityHashMap<>();
+    private long allocatedBytes = 0;
+    private boolean closed = false;
+
+    NodeStore() {
+    }
+
+    /**
+     * A store keeping the state in ordinary arrays on the heap, the default
+     *
+     * @return A heap store
+     */
+    public static NodeStore heap() {
+        return new HeapStore();
+    }
+
+    /**
+     * A store keeping the state in direct buffers outside of the heap, limited by {@code -XX:MaxDirectMemorySize}
+     *
+     * @return A direct store
+     */
+    public static NodeStore direct() {
+        return new DirectStore();
+    }
+
+    /**
+     * A store keeping the state in memory-mapped temporary files, paged in and out by the operating system so that
+     * domains larger than physical memory can be eroded. The files are deleted as their state is released.
+     *
+     * @param directory The directory to create the files in
+     * @return A file-backed store
+     */
+    public static NodeStore mapped(Path directory) {
+        return new MappedStore(directory);
+    }
+
+    /**
+     * The number of bytes currently allocated outside of the heap
+     *
+     * @return The allocated bytes, always 0 for a heap store
+     */
+    public synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Forbids further use of the store, which holds no state once every erosion using it has finished
+     *
+     * @throws IllegalStateException If an erosion using the store is still running, its state not being freed under it
+     */
+    @Override
+    public synchronized void close() {
+        if (!allocations.isEmpty())
+            throw new IllegalStateException("The node store still holds " + allocations.size()
+                    + " columns of a running erosion");
+        closed = true;
+    }
+
+    synchronized DoubleBuffer doubles(int size) {
+        Allocation allocation = allocate(8L * size);
+        if (allocation == null) return DoubleBuffer.allocate(size);
+        DoubleBuffer out = allocation.bytes.asDoubleBuffer();
+        track(out, allocation);
+        return out;
+    }
+
+    synchronized IntBuffer ints(int size) {
+        Allocation allocation = allocate(4L * size);
+        if (allocation == null) return IntBuffer.allocate(size);
+        IntBuffer out = allocation.bytes.asIntBuffer();
+        track(out, allocation);
+        return out;
+    }
+
+    synchronized void release(Buffer buffer) {
+        Allocation allocation = allocations.remove(buffer);
+        if (allocation == null) return;
+        allocatedBytes -= allocation.bytes.capacity();
+        allocation.release();
+    }
+
+    // the bytes backing a buffer, null for a heap buffer
+    abstract Allocation allocateBytes(int bytes);
+
+    private Allocation allocate(long bytes) {
+        if (closed)
+            throw new IllegalStateException("The node store is closed");
+        if (bytes > MAX_BYTES)
+            throw new IllegalArgumentException("A column of " + bytes + " bytes exceeds the 2GB limit of a buffer");
+        return allocateBytes((int) bytes);
+    }
+
+    private void track(Buffer buffer, Allocation allocation) {
+        allocations.put(buffer, allocation);
+        allocatedBytes += allocation.bytes.capacity();
+    }
+
+    // off-heap bytes in native order, along with the file they are mapped from if any
+    private record Allocation(ByteBuffer bytes, Path file) {
+        Allocation {
+            bytes.order(ByteOrder.nativeOrder());
+        }
+
+        void release() {
+            Cleaner.clean(bytes);
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // left to the operating system's temporary file cleanup
+                }
+            }
+        }
+    }
+
+    private static class HeapStore extends NodeStore {
+        @Override
+        Allocation allocateBytes(int bytes) {
+            return null;
+        }
+    }
+
+    private static class DirectStore extends NodeStore {
+        @Override
+        Allocation allocateBytes(int bytes) {
+            return new Allocation(ByteBuffer.allocateDirect(bytes), null);
+        }
+    }
+
+    private static class MappedStore extends NodeStore {
+        private final Path directory;
+
+        MappedStore(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        Allocation allocateBytes(int bytes) {
+            try {
+                Path file = Files.createTempFile(directory, "erosio-nodes", ".bin");
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    return new Allocation(channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes), file);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Frees the memory of a direct or mapped buffer immediately rather than once it is garbage collected, falling back
+     * to the garbage collector where the JDK does not allow it
+     */
+    private static class Cleaner {
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // the garbage collector frees every buffer
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        static void clean(ByteBuffer buffer) {
+            if (INVOKE_CLEANER == null) return;
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // freed by the garbage collector instead
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.keyboardcat1.erosio;
+
+/**
+ * {@link EroderEdge}s packed into primitive arrays, edge i holding the fields of an {@link EroderEdge} with its
+ * points given as node IDs of a {@link PackedGeometry}
+ */
+public final class PackedEdges {
+    /**
+     * The {@link PackedGeometry} the node IDs refer to
+     */
+    public final PackedGeometry geometry;
+    /**
+     * The node ID of every edge's {@link EroderEdge#origin()}
+     */
+    public final int[] origins;
+    /**
+     * The node ID of every edge's {@link EroderEdge#destination()}
+     */
+    public final int[] destinations;
+    /**
+     * Every edge's {@link EroderEdge#volumeOrigin()}
+     */
+    public final double[] volumeOrigins;
+    /**
+     * Every edge's {@link EroderEdge#volumeDestination()}
+     */
+    public final double[] volumeDestinations;
+
+    PackedEdges(PackedGeometry geometry, int count) {
+        this.geometry = geometry;
+        this.origins = new int[count];
+        this.destinations = new int[count];
+        this.volumeOrigins = new double[count];
+        this.volumeDestinations = new double[count];
+    }
+
+    /**
+     * The number of edges
+     *
+     * @return The number of edges
+     */
+    public int size() {
+        return origins.length;
+    }
+
+    /**
+     * Unpacks an edge
+     *
+     * @param i The index of the edge
+     * @return The edge as an {@link EroderEdge}
+     */
+    public EroderEdge get(int i) {
+        return new EroderEdge(geometry.nodes[origins[i]], geometry.nodes[destinations[i]],
+                volumeOrigins[i], volumeDestinations[i]);
+    }
+}
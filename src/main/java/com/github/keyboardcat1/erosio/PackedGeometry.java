@@ -0,0 +1,189 @@
+package com.github.keyboardcat1.erosio;
+
+import org.kynosarges.tektosyne.geometry.PointD;
+
+import java.util.*;
+
+/**
+ * The nodes of an {@link EroderGeometry} in a fixed order, with their coordinates, areas and adjacency packed into
+ * primitive arrays indexed by that order. The arrays are shared and must not be modified.
+ */
+public final class PackedGeometry {
+    /**
+     * The nodes of the graph, a node's index in this array being its ID
+     */
+    public final PointD[] nodes;
+    /**
+     * The X coordinate of every node
+     */
+    public final double[] xs;
+    /**
+     * The Y coordinate of every node
+     */
+    public final double[] ys;
+    /**
+     * The surface area of the region closest to every node
+     */
+    public final double[] areas;
+    /**
+     * The start of every node's neighbors in {@link #adjacency}, the last entry being the length of {@link #adjacency}
+     */
+    public final int[] adjacencyStart;
+    /**
+     * The IDs of the neighbors of node i, from {@code adjacencyStart[i]} inclusive to {@code adjacencyStart[i + 1]}
+     * exclusive
+     */
+    public final int[] adjacency;
+
+    // built on first lookup, geometries read from a file not needing it for erosion or rasterization
+    private volatile Map<PointD, Integer> indices;
+
+    PackedGeometry(EroderGeometry eroderGeometry) {
+        Map<PointD, Set<PointD>> graph = eroderGeometry.graph;
+        int n = graph.size();
+        nodes = graph.keySet().toArray(new PointD[0]);
+        xs = new double[n];
+        ys = new double[n];
+        areas = new double[n];
+        Map<PointD, Integer> indices = new HashMap<>(2 * n);
+        for (int i = 0; i < n; i++) {
+            xs[i] = nodes[i].x;
+            ys[i] = nodes[i].y;
+            areas[i] = eroderGeometry.areaMap.get(nodes[i]);
+            indices.put(nodes[i], i);
+        }
+        this.indices = indices;
+
+        adjacencyStart = new int[n + 1];
+        for (int i = 0; i < n; i++)
+            adjacencyStart[i + 1] = adjacencyStart[i] + graph.get(nodes[i]).size();
+        adjacency = new int[adjacencyStart[n]];
+        for (int i = 0; i < n; i++) {
+            int j = adjacencyStart[i];
+            for (PointD neighbor : graph.get(nodes[i]))
+                adjacency[j++] = indices.get(neighbor);
+        }
+    }
+
+    PackedGeometry(double[] xs, double[] ys, double[] areas, int[] adjacencyStart, int[] adjacency) {
+        this.xs = xs;
+        this.ys = ys;
+        this.areas = areas;
+        this.adjacencyStart = adjacencyStart;
+        this.adjacency = adjacency;
+        nodes = new PointD[xs.length];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = new PointD(xs[i], ys[i]);
+    }
+
+    /**
+     * The number of nodes
+     *
+     * @return The number of nodes
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * The ID of a node
+     *
+     * @param node The node to look up
+     * @return The index of the node in {@link #nodes}, -1 if it is not a node of the geometry
+     */
+    public int indexOf(PointD node) {
+        Map<PointD, Integer> out = indices;
+        if (out == null) synchronized (this) {
+            if (indices == null) {
+                Map<PointD, Integer> built = new HashMap<>(2 * nodes.length);
+                for (int i = 0; i < nodes.length; i++)
+                    built.put(nodes[i], i);
+                indices = built;
+            }
+            out = indices;
+        }
+        Integer index = out.get(node);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * A read-only view of the adjacency as a graph of nodes
+     */
+    Map<PointD, Set<PointD>> graphView() {
+        return new AbstractMap<>() {
+            @Override
+            public Set<PointD> get(Object key) {
+                int node = key instanceof PointD point ? indexOf(point) : -1;
+                return node < 0 ? null : neighbors(node);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof PointD point && indexOf(point) >= 0;
+            }
+
+            @Override
+            public int size() {
+                return nodes.length;
+            }
+
+            @Override
+            public Set<Entry<PointD, Set<PointD>>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<PointD, Set<PointD>>> iterator() {
+                        return new Iterator<>() {
+                            private int node = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return node < nodes.length;
+                            }
+
+                            @Override
+                            public Entry<PointD, Set<PointD>> next() {
+                                if (!hasNext()) throw new NoSuchElementException();
+                                Entry<PointD, Set<PointD>> out = new SimpleImmutableEntry<>(nodes[node], neighbors(node));
+                                node++;
+                                return out;
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return nodes.length;
+                    }
+                };
+            }
+        };
+    }
+
+    private Set<PointD> neighbors(int node) {
+        int start = adjacencyStart[node], end = adjacencyStart[node + 1];
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<PointD> iterator() {
+                return new Iterator<>() {
+                    private int j = start;
+
+                    @Override
+                    public boolean hasNext() {
+                        return j < end;
+                    }
+
+                    @Override
+                    public PointD next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        return nodes[adjacency[j++]];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return end - start;
+            }
+        };
+    }
+}
@@ -0,0 +1,199 @@
+package com.github.keyboardcat1.erosio;
+
+import org.kynosarges.tektosyne.geometry.PointD;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * The binary format of {@link EroderResults#save(Path)}. <br/>
+ * A 64-byte little-endian header (magic, version, node count, adjacency length, bounding polygon length, converged
+ * iteration, the minimum distance as a double, then the number of words of the custom outlets, -1 if water leaves
+ * through the boundary) is followed by the bounding polygon as X and Y pairs, then the columns X, Y, area, height and
+ * drainage as doubles and receiver, basin, downstream order, adjacency start and adjacency as ints, every column in
+ * node order, and last the words of the custom outlets as longs. Version 1 files, which have no custom outlets, are
+ * still read. <br/>
+ * Reading maps the file only to copy its sections into heap arrays, the columns of {@link EroderResults} being arrays.
+ */
+final class ResultsFile {
+    private static final int MAGIC = 0x4E535245; // "ERSN"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    // sections are mapped in pieces under the 2GB limit of a mapping, aligned on 8 bytes
+    private static final long PIECE_BYTES = 1L << 30;
+
+    private ResultsFile() {
+    }
+
+    static void write(EroderResults eroderResults, Path file) throws IOException {
+        PackedGeometry geometry = eroderResults.packed();
+        PointD[] boundingPolygon = eroderResults.eroderGeometry.boundingPolygon;
+        BitSet outlets = eroderResults.eroderGeometry.customOutlets();
+        long[] outletWords = outlets == null ? null : outlets.toLongArray();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(geometry.size()).putInt(geometry.adjacency.length)
+                    .putInt(boundingPolygon.length).putInt(eroderResults.converged)
+                    .putDouble(eroderResults.eroderGeometry.minDistance)
+                    .putInt(outletWords == null ? -1 : outletWords.length);
+            header.rewind();
+            writeFully(channel, header);
+
+            double[] polygon = new double[2 * boundingPolygon.length];
+            for (int i = 0; i < boundingPolygon.length; i++) {
+                polygon[2 * i] = boundingPolygon[i].x;
+                polygon[2 * i + 1] = boundingPolygon[i].y;
+            }
+            write(channel, polygon);
+            write(channel, geometry.xs);
+            write(channel, geometry.ys);
+            write(channel, geometry.areas);
+            write(channel, eroderResults.heights);
+            write(channel, eroderResults.drainage);
+            write(channel, eroderResults.receivers);
+            write(channel, eroderResults.basins);
+            write(channel, eroderResults.downstreamOrder);
+            write(channel, geometry.adjacencyStart);
+            write(channel, geometry.adjacency);
+            if (outletWords != null) write(channel, outletWords);
+        }
+    }
+
+    static EroderResults read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC)
+                throw new IOException(file + " is not an erosion results file");
+            int version = header.getInt();
+            if (version != 1 && version != VERSION)
+                throw new IOException(file + " has unsupported erosion results version " + version);
+            int n = header.getInt();
+            int adjacencyLength = header.getInt();
+            int polygonLength = header.getInt();
+            int converged = header.getInt();
+            double minDistance = header.getDouble();
+            int outletWords = version == 1 ? -1 : header.getInt();
+
+            long[] position = {HEADER_BYTES};
+            double[] polygon = readDoubles(channel, position, 2 * polygonLength);
+            double[] xs = readDoubles(channel, position, n);
+            double[] ys = readDoubles(channel, position, n);
+            double[] areas = readDoubles(channel, position, n);
+            double[] heights = readDoubles(channel, position, n);
+            double[] drainage = readDoubles(channel, position, n);
+            int[] receivers = readInts(channel, position, n);
+            int[] basins = readInts(channel, position, n);
+            int[] downstreamOrder = readInts(channel, position, n);
+            int[] adjacencyStart = readInts(channel, position, n + 1);
+            int[] adjacency = readInts(channel, position, adjacencyLength);
+            long[] outlets = outletWords < 0 ? null : readLongs(channel, position, outletWords);
+
+            PointD[] boundingPolygon = new PointD[polygonLength];
+            for (int i = 0; i < polygonLength; i++)
+                boundingPolygon[i] = new PointD(polygon[2 * i], polygon[2 * i + 1]);
+            PackedGeometry packed = new PackedGeometry(xs, ys, areas, adjacencyStart, adjacency);
+            StoredGeometry eroderGeometry = new StoredGeometry(boundingPolygon, minDistance, packed);
+            if (outlets != null) eroderGeometry.setOutlets(BitSet.valueOf(outlets));
+            return new EroderResults(eroderGeometry, heights, receivers, drainage, basins, downstreamOrder, converged);
+        }
+    }
+
+    private static void write(FileChannel channel, double[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(8L * values.length, PIECE_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int from = 0; from < values.length; ) {
+            int count = Math.min(values.length - from, buffer.capacity() / 8);
+            buffer.clear();
+            buffer.asDoubleBuffer().put(values, from, count);
+            buffer.limit(8 * count);
+            writeFully(channel, buffer);
+            from += count;
+        }
+    }
+
+    private static void write(FileChannel channel, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(4L * values.length, PIECE_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int from = 0; from < values.length; ) {
+            int count = Math.min(values.length - from, buffer.capacity() / 4);
+            buffer.clear();
+            buffer.asIntBuffer().put(values, from, count);
+            buffer.limit(4 * count);
+            writeFully(channel, buffer);
+            from += count;
+        }
+    }
+
+    private static void write(FileChannel channel, long[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(8L * values.length, PIECE_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int from = 0; from < values.length; ) {
+            int count = Math.min(values.length - from, buffer.capacity() / 8);
+            buffer.clear();
+            buffer.asLongBuffer().put(values, from, count);
+            buffer.limit(8 * count);
+            writeFully(channel, buffer);
+            from += count;
+        }
+    }
+
+    private static double[] readDoubles(FileChannel channel, long[] position, int length) throws IOException {
+        double[] out = new double[length];
+        for (int from = 0; from < length; ) {
+            int count = (int) Math.min(length - from, PIECE_BYTES / 8);
+            map(channel, position[0], 8L * count).asDoubleBuffer().get(out, from, count);
+            position[0] += 8L * count;
+            from += count;
+        }
+        return out;
+    }
+
+    private static int[] readInts(FileChannel channel, long[] position, int length) throws IOException {
+        int[] out = new int[length];
+        for (int from = 0; from < length; ) {
+            int count = (int) Math.min(length - from, PIECE_BYTES / 4);
+            map(channel, position[0], 4L * count).asIntBuffer().get(out, from, count);
+            position[0] += 4L * count;
+            from += count;
+        }
+        return out;
+    }
+
+    private static long[] readLongs(FileChannel channel, long[] position, int length) throws IOException {
+        long[] out = new long[length];
+        for (int from = 0; from < length; ) {
+            int count = (int) Math.min(length - from, PIECE_BYTES / 8);
+            map(channel, position[0], 8L * count).asLongBuffer().get(out, from, count);
+            position[0] += 8L * count;
+            from += count;
+        }
+        return out;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (position + size > channel.size())
+            throw new IOException("Truncated erosion results file");
+        MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        return out;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * A geometry read back from a file, its graph being a view of the packed arrays
+     */
+    private static class StoredGeometry extends EroderGeometry {
+        StoredGeometry(PointD[] boundingPolygon, double minDistance, PackedGeometry packed) {
+            super(boundingPolygon, minDistance, packed);
+        }
+    }
+}
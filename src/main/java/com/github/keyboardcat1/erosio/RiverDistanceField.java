@@ -0,0 +1,231 @@
+package com.github.keyboardcat1.erosio;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The distance from every node of an {@link EroderResults} to the closest river, along the edges of the geometry graph,
+ * computed once by a shortest path sweep from every river node at the same time. A node lies on a river when it drains
+ * more than the threshold area, as in {@link RiverNetwork}. Straight-line distances over a grid are available through
+ * {@link #distanceTransform}.
+ */
+public class RiverDistanceField {
+    /**
+     * The area a node must drain more than to be part of a river
+     */
+    public final double minVolume;
+    /**
+     * The length of the shortest path from every node to a river, 0 on rivers and infinite if there is no river
+     */
+    public final double[] distances;
+    /**
+     * The river node closest to every node, itself on rivers and -1 if there is no river
+     */
+    public final int[] nearestRiver;
+
+    private final EroderResults eroderResults;
+
+    RiverDistanceField(EroderResults eroderResults, double minVolume) {
+        this.eroderResults = eroderResults;
+        this.minVolume = minVolume;
+        PackedGeometry geometry = eroderResults.packed();
+        int n = geometry.size();
+        distances = new double[n];
+        nearestRiver = new int[n];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        Arrays.fill(nearestRiver, -1);
+
+        // Dijkstra's algorithm from every river node at once, settled nodes skipping their stale heap entries
+        Heap heap = new Heap();
+        for (int node = 0; node < n; node++)
+            if (eroderResults.drainage[node] > minVolume) {
+                distances[node] = 0;
+                nearestRiver[node] = node;
+                heap.push(node, 0);
+            }
+        while (!heap.isEmpty()) {
+            double distance = heap.minKey();
+            int node = heap.pop();
+            if (distance > distances[node]) continue;
+            for (int j = geometry.adjacencyStart[node]; j < geometry.adjacencyStart[node + 1]; j++) {
+                int neighbor = geometry.adjacency[j];
+                double dx = geometry.xs[neighbor] - geometry.xs[node];
+                double dy = geometry.ys[neighbor] - geometry.ys[node];
+                double through = distance + Math.sqrt(dx * dx + dy * dy);
+                if (through < distances[neighbor]) {
+                    distances[neighbor] = through;
+                    nearestRiver[neighbor] = nearestRiver[node];
+                    heap.push(neighbor, through);
+                }
+            }
+        }
+    }
+
+    /**
+     * The length of the shortest path from a node to a river
+     *
+     * @param node The ID of the node
+     * @return The distance, 0 on rivers and infinite if there is no river
+     */
+    public double distance(int node) {
+        return distances[node];
+    }
+
+    /**
+     * The straight-line distance from every point of a grid to the closest river, computed by an exact Euclidean
+     * distance transform of the rivers drawn onto the grid and its extension, so that rivers off the grid are seen.
+     * Columns holding a river are processed in parallel, then rows. The distances are exact to within half the
+     * diagonal of a pixel.
+     *
+     * @param minX   The X coordinate of the first point
+     * @param minY   The Y coordinate of the first point
+     * @param step   The distance between two neighboring points
+     * @param width  The number of points along the X axis
+     * @param height The number of points along the Y axis
+     * @return The distances in row-major order, infinite if there is no river
+     */
+    public double[] distanceTransform(double minX, double minY, double step, int width, int height) {
+        // every river edge is drawn as pixels at most half a pixel apart, sorted by column then row
+        PackedGeometry geometry = eroderResults.packed();
+        int[] receivers = eroderResults.receivers;
+        long[] pixels = new long[16];
+        int count = 0;
+        for (int node = 0; node < receivers.length; node++) {
+            if (eroderResults.drainage[node] <= minVolume) continue;
+            int receiver = receivers[node];
+            double x0 = (geometry.xs[node] - minX) / step, y0 = (geometry.ys[node] - minY) / step;
+            double x1 = (geometry.xs[receiver] - minX) / step, y1 = (geometry.ys[receiver] - minY) / step;
+            int samples = (int) Math.ceil(2 * Math.hypot(x1 - x0, y1 - y0));
+            for (int s = 0; s <= samples; s++) {
+                double t = samples == 0 ? 0 : s / (double) samples;
+                if (count == pixels.length) pixels = Arrays.copyOf(pixels, 2 * count);
+                pixels[count++] = pixel((int) Math.round(x0 + t * (x1 - x0)), (int) Math.round(y0 + t * (y1 - y0)));
+            }
+        }
+        Arrays.sort(pixels, 0, count);
+        int[] columnStart = new int[count + 1];
+        int columns = 0;
+        for (int i = 0; i < count; i++)
+            if (i == 0 || column(pixels[i]) != column(pixels[i - 1])) columnStart[columns++] = i;
+        columnStart[columns] = count;
+
+        double[] out = new double[width * height];
+        if (columns == 0) {
+            Arrays.fill(out, Double.POSITIVE_INFINITY);
+            return out;
+        }
+        // the squared distance from every point of a column holding a river to the closest river pixel in it
+        double[][] vertical = new double[columns][];
+        long[] finalPixels = pixels;
+        int finalColumns = columns;
+        IntStream.range(0, columns).parallel().forEach(c -> {
+            double[] squared = new double[height];
+            int closest = columnStart[c];
+            for (int y = 0; y < height; y++) {
+                while (closest + 1 < columnStart[c + 1]
+                        && Math.abs(row(finalPixels[closest + 1]) - y) <= Math.abs(row(finalPixels[closest]) - y))
+                    closest++;
+                double dy = row(finalPixels[closest]) - (double) y;
+                squared[y] = dy * dy;
+            }
+            vertical[c] = squared;
+        });
+        // the lower envelope along every row of the parabolas rooted at the columns holding a river, after
+        // Felzenszwalb and Huttenlocher
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int[] roots = new int[finalColumns];
+            double[] bounds = new double[finalColumns + 1];
+            int k = 0;
+            roots[0] = 0;
+            bounds[0] = Double.NEGATIVE_INFINITY;
+            bounds[1] = Double.POSITIVE_INFINITY;
+            for (int c = 1; c < finalColumns; c++) {
+                double s = intersection(vertical, finalPixels, columnStart, y, roots[k], c);
+                while (s <= bounds[k]) {
+                    k--;
+                    s = intersection(vertical, finalPixels, columnStart, y, roots[k], c);
+                }
+                k++;
+                roots[k] = c;
+                bounds[k] = s;
+                bounds[k + 1] = Double.POSITIVE_INFINITY;
+            }
+            k = 0;
+            for (int x = 0; x < width; x++) {
+                while (bounds[k + 1] < x) k++;
+                double dx = x - (double) column(finalPixels[columnStart[roots[k]]]);
+                out[y * width + x] = Math.sqrt(dx * dx + vertical[roots[k]][y]) * step;
+            }
+        });
+        return out;
+    }
+
+    // the abscissa where the parabolas rooted at two columns cross
+    private static double intersection(double[][] vertical, long[] pixels, int[] columnStart, int y, int p, int q) {
+        double xp = column(pixels[columnStart[p]]), xq = column(pixels[columnStart[q]]);
+        return ((vertical[q][y] + xq * xq) - (vertical[p][y] + xp * xp)) / (2 * xq - 2 * xp);
+    }
+
+    // ordered by column then row
+    private static long pixel(int x, int y) {
+        return ((long) x << 32) + (y + 0x80000000L);
+    }
+
+    private static int column(long pixel) {
+        return (int) (pixel >> 32);
+    }
+
+    private static int row(long pixel) {
+        return (int) ((pixel & 0xFFFFFFFFL) - 0x80000000L);
+    }
+
+    /**
+     * A binary min-heap of nodes keyed by distance, a node being pushed again whenever its distance decreases
+     */
+    private static class Heap {
+        private int[] nodes = new int[16];
+        private double[] keys = new double[16];
+        private int size = 0;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double minKey() {
+            return keys[0];
+        }
+
+        void push(int node, double key) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * size);
+                keys = Arrays.copyOf(keys, 2 * size);
+            }
+            int i = size++;
+            while (i > 0 && keys[(i - 1) / 2] > key) {
+                nodes[i] = nodes[(i - 1) / 2];
+                keys[i] = keys[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+        }
+
+        int pop() {
+            int out = nodes[0];
+            int node = nodes[--size];
+            double key = keys[size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+                if (keys[child] >= key) break;
+                nodes[i] = nodes[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+            return out;
+        }
+    }
+}
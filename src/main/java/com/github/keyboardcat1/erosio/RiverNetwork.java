@@ -0,0 +1,197 @@
+package com.github.keyboardcat1.erosio;
+
+import org.kynosarges.tektosyne.geometry.PointD;
+
+import java.util.Arrays;
+
+/**
+ * The rivers of an {@link EroderResults} as polylines running downstream between confluences, packed into primitive
+ * arrays. The vertices of river i lie from {@code riverStart[i]} inclusive to {@code riverStart[i + 1]} exclusive,
+ * rivers flowing into a confluence ending on the confluence's node, and tributaries coming before the rivers they
+ * flow into.
+ */
+public class RiverNetwork {
+    /**
+     * The start of every river's vertices, the last entry being the total number of vertices
+     */
+    public final int[] riverStart;
+    /**
+     * The X coordinate of every vertex
+     */
+    public final double[] xs;
+    /**
+     * The Y coordinate of every vertex
+     */
+    public final double[] ys;
+    /**
+     * The node ID of every vertex
+     */
+    public final int[] nodes;
+    /**
+     * The area drained through every vertex
+     */
+    public final double[] drainage;
+    /**
+     * The Strahler order of every river
+     */
+    public final int[] strahler;
+    /**
+     * The Shreve magnitude of every river, the number of sources upstream of it
+     */
+    public final int[] shreve;
+    /**
+     * The index of the river every river flows into, -1 if it ends on an outlet
+     */
+    public final int[] downstream;
+
+    RiverNetwork(EroderResults eroderResults, double minVolume, double tolerance) {
+        PackedGeometry geometry = eroderResults.packed();
+        int[] receivers = eroderResults.receivers;
+        double[] area = eroderResults.drainage;
+        int[] order = eroderResults.downstreamOrder;
+        int n = receivers.length;
+
+        // upstream first, every wet node passes its orders and tributary count on to its receiver
+        int[] tributaries = new int[n];
+        int[] nodeStrahler = new int[n];
+        int[] nodeShreve = new int[n];
+        int[] maxStrahler = new int[n];
+        int[] maxStrahlerCount = new int[n];
+        int wet = 0;
+        for (int k = n - 1; k >= 0; k--) {
+            int node = order[k];
+            if (area[node] <= minVolume) continue;
+            wet++;
+            nodeStrahler[node] = maxStrahler[node] == 0 ? 1 :
+                    maxStrahlerCount[node] >= 2 ? maxStrahler[node] + 1 : maxStrahler[node];
+            nodeShreve[node] = Math.max(1, nodeShreve[node]);
+            int receiver = receivers[node];
+            if (receiver == node) continue;
+            tributaries[receiver]++;
+            nodeShreve[receiver] += nodeShreve[node];
+            if (nodeStrahler[node] > maxStrahler[receiver]) {
+                maxStrahler[receiver] = nodeStrahler[node];
+                maxStrahlerCount[receiver] = 1;
+            } else if (nodeStrahler[node] == maxStrahler[receiver]) {
+                maxStrahlerCount[receiver]++;
+            }
+        }
+
+        // every river starts on a source or a confluence and runs down to the next confluence or outlet
+        int[] riverOfHead = new int[n];
+        Arrays.fill(riverOfHead, -1);
+        // every vertex is a distinct wet node, apart from the last vertex of each river
+        int[] vertices = new int[2 * wet];
+        int[] starts = new int[wet + 1];
+        int[] heads = new int[wet];
+        int rivers = 0, count = 0;
+        for (int k = n - 1; k >= 0; k--) {
+            int head = order[k];
+            if (area[head] <= minVolume || tributaries[head] == 1 || receivers[head] == head) continue;
+            starts[rivers] = count;
+            vertices[count++] = head;
+            int current = head;
+            while (receivers[current] != current) {
+                current = receivers[current];
+                vertices[count++] = current;
+                if (tributaries[current] != 1) break;
+            }
+            heads[rivers] = head;
+            riverOfHead[head] = rivers++;
+        }
+        starts[rivers] = count;
+
+        strahler = new int[rivers];
+        shreve = new int[rivers];
+        downstream = new int[rivers];
+        for (int river = 0; river < rivers; river++) {
+            strahler[river] = nodeStrahler[heads[river]];
+            shreve[river] = nodeShreve[heads[river]];
+            downstream[river] = riverOfHead[vertices[starts[river + 1] - 1]];
+        }
+
+        // Douglas-Peucker simplification, compacting the kept vertices in place
+        riverStart = new int[rivers + 1];
+        int kept = 0;
+        boolean[] keep = new boolean[count];
+        int[] stack = new int[2 * count];
+        for (int river = 0; river < rivers; river++) {
+            int first = starts[river], last = starts[river + 1] - 1;
+            if (tolerance > 0) simplify(geometry, vertices, first, last, tolerance * tolerance, keep, stack);
+            else Arrays.fill(keep, first, last + 1, true);
+            riverStart[river] = kept;
+            for (int i = first; i <= last; i++)
+                if (keep[i]) vertices[kept++] = vertices[i];
+        }
+        riverStart[rivers] = kept;
+
+        nodes = Arrays.copyOf(vertices, kept);
+        xs = new double[kept];
+        ys = new double[kept];
+        drainage = new double[kept];
+        for (int i = 0; i < kept; i++) {
+            xs[i] = geometry.xs[nodes[i]];
+            ys[i] = geometry.ys[nodes[i]];
+            drainage[i] = area[nodes[i]];
+        }
+    }
+
+    /**
+     * The number of rivers
+     *
+     * @return The number of rivers
+     */
+    public int size() {
+        return strahler.length;
+    }
+
+    /**
+     * Unpacks the vertices of a river
+     *
+     * @param river The index of the river
+     * @return The vertices of the river from upstream to downstream
+     */
+    public PointD[] polyline(int river) {
+        PointD[] out = new PointD[riverStart[river + 1] - riverStart[river]];
+        for (int i = 0; i < out.length; i++)
+            out[i] = new PointD(xs[riverStart[river] + i], ys[riverStart[river] + i]);
+        return out;
+    }
+
+    private static void simplify(PackedGeometry geometry, int[] vertices, int first, int last, double toleranceSquared,
+                                 boolean[] keep, int[] stack) {
+        Arrays.fill(keep, first, last + 1, false);
+        keep[first] = keep[last] = true;
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while (top > 0) {
+            int to = stack[--top], from = stack[--top];
+            double ax = geometry.xs[vertices[from]], ay = geometry.ys[vertices[from]];
+            double dx = geometry.xs[vertices[to]] - ax, dy = geometry.ys[vertices[to]] - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            int farthest = -1;
+            double farthestDistance = toleranceSquared;
+            for (int i = from + 1; i < to; i++) {
+                double px = geometry.xs[vertices[i]] - ax, py = geometry.ys[vertices[i]] - ay;
+                double distance;
+                if (lengthSquared == 0) {
+                    distance = px * px + py * py;
+                } else {
+                    double cross = px * dy - py * dx;
+                    distance = cross * cross / lengthSquared;
+                }
+                if (distance > farthestDistance) {
+                    farthestDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest < 0) continue;
+            keep[farthest] = true;
+            stack[top++] = from;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = to;
+        }
+    }
+}
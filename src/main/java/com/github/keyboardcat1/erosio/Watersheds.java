@@ -0,0 +1,195 @@
+package com.github.keyboardcat1.erosio;
+
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+/**
+ * The drainage basins of an {@link EroderResults}, one per outlet, numbered densely in the order their outlets come in
+ * the stream forest and packed into primitive arrays. The nodes of basin i lie from {@code basinStart[i]} inclusive to
+ * {@code basinStart[i + 1]} exclusive in {@link #basinNodes}, the outlet first and every node after its receiver.
+ */
+public class Watersheds {
+    /**
+     * The basin of every node
+     */
+    public final int[] labels;
+    /**
+     * The ID of the outlet of every basin
+     */
+    public final int[] outlets;
+    /**
+     * The start of every basin's nodes, the last entry being the number of nodes
+     */
+    public final int[] basinStart;
+    /**
+     * The IDs of the nodes of every basin
+     */
+    public final int[] basinNodes;
+    /**
+     * The area of every basin
+     */
+    public final double[] areas;
+    /**
+     * The height of the highest node of every basin
+     */
+    public final double[] maxHeights;
+    /**
+     * The height difference between the highest node and the outlet of every basin
+     */
+    public final double[] relief;
+
+    private final PackedGeometry geometry;
+    private final RectD bounds;
+    // the nodes of cell i, from cellStart[i] inclusive to cellStart[i + 1] exclusive
+    private final int[] cellStart;
+    private final int[] cellNodes;
+    private final int columns, rows;
+    private final double cellSize;
+
+    Watersheds(EroderResults eroderResults) {
+        geometry = eroderResults.packed();
+        int[] receivers = eroderResults.receivers;
+        int[] order = eroderResults.downstreamOrder;
+        double[] heights = eroderResults.heights;
+        int n = receivers.length;
+
+        // downstream first, every node takes the basin of its receiver
+        labels = new int[n];
+        int basins = 0;
+        for (int node : order)
+            labels[node] = receivers[node] == node ? basins++ : labels[receivers[node]];
+
+        outlets = new int[basins];
+        areas = new double[basins];
+        maxHeights = new double[basins];
+        relief = new double[basins];
+        basinStart = new int[basins + 1];
+        for (int node = 0; node < n; node++) {
+            int basin = labels[node];
+            basinStart[basin + 1]++;
+            areas[basin] += geometry.areas[node];
+        }
+        for (int basin = 0; basin < basins; basin++)
+            basinStart[basin + 1] += basinStart[basin];
+        basinNodes = new int[n];
+        int[] fill = basinStart.clone();
+        for (int node : order) {
+            int basin = labels[node];
+            if (fill[basin] == basinStart[basin]) {
+                outlets[basin] = node;
+                maxHeights[basin] = heights[node];
+            }
+            basinNodes[fill[basin]++] = node;
+            if (heights[node] > maxHeights[basin]) maxHeights[basin] = heights[node];
+        }
+        for (int basin = 0; basin < basins; basin++)
+            relief[basin] = maxHeights[basin] - heights[outlets[basin]];
+
+        // a grid of about one node per cell over the bounds, for point queries
+        bounds = eroderResults.eroderGeometry.rectBounds;
+        cellSize = Math.max(Math.sqrt(bounds.width() * bounds.height() / n), Double.MIN_NORMAL);
+        columns = Math.max(1, (int) Math.ceil(bounds.width() / cellSize));
+        rows = Math.max(1, (int) Math.ceil(bounds.height() / cellSize));
+        cellStart = new int[columns * rows + 1];
+        int[] cells = new int[n];
+        for (int node = 0; node < n; node++) {
+            cells[node] = cell(column(geometry.xs[node]), row(geometry.ys[node]));
+            cellStart[cells[node] + 1]++;
+        }
+        for (int cell = 0; cell < columns * rows; cell++)
+            cellStart[cell + 1] += cellStart[cell];
+        cellNodes = new int[n];
+        fill = cellStart.clone();
+        for (int node = 0; node < n; node++)
+            cellNodes[fill[cells[node]]++] = node;
+    }
+
+    /**
+     * The number of basins
+     *
+     * @return The number of basins
+     */
+    public int size() {
+        return outlets.length;
+    }
+
+    /**
+     * The basin of a node
+     *
+     * @param node The ID of the node
+     * @return The index of the basin
+     */
+    public int basin(int node) {
+        return labels[node];
+    }
+
+    /**
+     * The basin of the node closest to a point, whose cell holds the point
+     *
+     * @param point The point to look up
+     * @return The index of the basin
+     */
+    public int basin(PointD point) {
+        return labels[nearest(point.x, point.y)];
+    }
+
+    /**
+     * The nodes of a basin
+     *
+     * @param basin The index of the basin
+     * @return The IDs of the nodes, the outlet first and every node after its receiver
+     */
+    public int[] nodes(int basin) {
+        int[] out = new int[basinStart[basin + 1] - basinStart[basin]];
+        System.arraycopy(basinNodes, basinStart[basin], out, 0, out.length);
+        return out;
+    }
+
+    /**
+     * The node closest to a point, searched in rings of cells around the point's cell until no closer node can remain
+     *
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of the point
+     * @return The ID of the closest node
+     */
+    public int nearest(double x, double y) {
+        if (!bounds.contains(new PointD(x, y)))
+            throw new IndexOutOfBoundsException(new PointD(x, y) + " does not lie within the bounds");
+        int column = column(x), row = row(y);
+        int out = -1;
+        double best = Double.POSITIVE_INFINITY;
+        for (int ring = 0; ring <= Math.max(columns, rows); ring++) {
+            // the nodes of a ring lie at least one ring of cells less away from the point
+            double reach = (ring - 1) * cellSize;
+            if (out >= 0 && reach * reach > best) break;
+            for (int c = column - ring; c <= column + ring; c++)
+                for (int r = row - ring; r <= row + ring; r++) {
+                    if (c < 0 || r < 0 || c >= columns || r >= rows) continue;
+                    if (Math.max(Math.abs(c - column), Math.abs(r - row)) != ring) continue;
+                    int cell = cell(c, r);
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        int node = cellNodes[i];
+                        double dx = geometry.xs[node] - x, dy = geometry.ys[node] - y;
+                        double distance = dx * dx + dy * dy;
+                        if (distance < best) {
+                            best = distance;
+                            out = node;
+                        }
+                    }
+                }
+        }
+        return out;
+    }
+
+    private int column(double x) {
+        return Math.min(columns - 1, Math.max(0, (int) ((x - bounds.min.x) / cellSize)));
+    }
+
+    private int row(double y) {
+        return Math.min(rows - 1, Math.max(0, (int) ((y - bounds.min.y) / cellSize)));
+    }
+
+    private int cell(int column, int row) {
+        return row * columns + column;
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.keyboardcat1.erosio.diagnostics;
+
+import jdk.jfr.*;
+
+/**
+ * A bulk query of a grid of points on an {@link com.github.keyboardcat1.erosio.interpolation.Interpolator}
+ */
+@Name("erosio.BulkQuery")
+@Label("Bulk Query")
+@Category({"Erosio", "Interpolation"})
+@StackTrace(false)
+public class BulkQueryEvent extends Event {
+    /**
+     * The class of the interpolator
+     */
+    @Label("Interpolator")
+    public Class<?> interpolator;
+    /**
+     * The number of points along the X axis
+     */
+    @Label("Width")
+    public int width;
+    /**
+     * The number of points along the Y axis
+     */
+    @Label("Height")
+    public int height;
+    /**
+     * Whether gradients were computed along with heights
+     */
+    @Label("Gradients")
+    public boolean gradients;
+}
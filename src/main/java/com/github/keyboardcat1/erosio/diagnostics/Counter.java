@@ -0,0 +1,42 @@
+package com.github.keyboardcat1.erosio.diagnostics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count, cheap to update from many threads
+ */
+public final class Counter {
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    /**
+     * Adds one to the count
+     */
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * Adds to the count
+     *
+     * @param amount The amount to add
+     */
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    /**
+     * The current count
+     *
+     * @return The sum of every update
+     */
+    public long get() {
+        return value.sum();
+    }
+
+    void reset() {
+        value.reset();
+    }
+}
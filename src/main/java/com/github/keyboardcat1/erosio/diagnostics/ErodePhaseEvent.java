@@ -0,0 +1,38 @@
+package com.github.keyboardcat1.erosio.diagnostics;
+
+import jdk.jfr.*;
+
+/**
+ * A phase of an {@link com.github.keyboardcat1.erosio.Eroder} iteration
+ */
+@Name("erosio.ErodePhase")
+@Label("Erosion Phase")
+@Category({"Erosio", "Erosion"})
+@StackTrace(false)
+public class ErodePhaseEvent extends Event {
+    /**
+     * The iteration the phase belongs to
+     */
+    @Label("Iteration")
+    public int iteration;
+    /**
+     * The name of the phase: streamGraph, lakeResolution, drainage or heightSolve
+     */
+    @Label("Phase")
+    public String phase;
+    /**
+     * The number of nodes
+     */
+    @Label("Nodes")
+    public int nodeCount;
+    /**
+     * The number of stream graph roots at the end of the phase
+     */
+    @Label("Roots")
+    public int rootCount;
+    /**
+     * The number of lakes routed to a drain during lake resolution
+     */
+    @Label("Lakes")
+    public int lakeCount;
+}
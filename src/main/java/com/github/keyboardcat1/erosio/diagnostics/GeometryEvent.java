@@ -0,0 +1,23 @@
+package com.github.keyboardcat1.erosio.diagnostics;
+
+import jdk.jfr.*;
+
+/**
+ * The construction of an {@link com.github.keyboardcat1.erosio.EroderGeometry}
+ */
+@Name("erosio.Geometry")
+@Label("Geometry Construction")
+@Category({"Erosio", "Geometry"})
+@StackTrace(false)
+public class GeometryEvent extends Event {
+    /**
+     * The class of the geometry
+     */
+    @Label("Geometry")
+    public Class<?> geometry;
+    /**
+     * The number of nodes
+     */
+    @Label("Nodes")
+    public int nodeCount;
+}
@@ -0,0 +1,109 @@
+package com.github.keyboardcat1.erosio.diagnostics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A distribution of non-negative values in power-of-two buckets, cheap to update from many threads
+ */
+public final class Histogram {
+    private static final int BUCKETS = 64;
+
+    // bucket i counts the values v with 2^(i-1) <= v < 2^i, bucket 0 counting zeros
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Records a value
+     *
+     * @param value The value to record, negative values being recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * The number of recorded values
+     *
+     * @return The number of recorded values
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * The sum of the recorded values
+     *
+     * @return The sum of the recorded values
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * The largest recorded value
+     *
+     * @return The largest recorded value, 0 if none was recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * The mean of the recorded values
+     *
+     * @return The mean of the recorded values, 0 if none was recorded
+     */
+    public double mean() {
+        long n = count();
+        return n == 0 ? 0 : (double) sum() / n;
+    }
+
+    /**
+     * An upper bound of a quantile, exact to within a factor of two
+     *
+     * @param q The quantile, between 0 and 1
+     * @return The upper bound of the bucket holding the quantile, 0 if no value was recorded
+     */
+    public long quantile(double q) {
+        long n = count();
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) return Math.min(max(), (1L << i) - 1);
+        }
+        return max();
+    }
+
+    /**
+     * The number of recorded values in every bucket
+     *
+     * @return The counts of the buckets, bucket i counting values below 2^i and from 2^(i-1)
+     */
+    public long[] buckets() {
+        long[] out = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            out[i] = buckets[i].sum();
+        return out;
+    }
+
+    void reset() {
+        for (LongAdder bucket : buckets) bucket.reset();
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
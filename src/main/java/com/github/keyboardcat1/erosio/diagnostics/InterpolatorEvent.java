@@ -0,0 +1,29 @@
+package com.github.keyboardcat1.erosio.diagnostics;
+
+import jdk.jfr.*;
+
+/**
+ * The pre-computation of an {@link com.github.keyboardcat1.erosio.interpolation.Interpolator}, be it at construction
+ * or on first use
+ */
+@Name("erosio.Interpolator")
+@Label("Interpolator Construction")
+@Category({"Erosio", "Interpolation"})
+@StackTrace(false)
+public class InterpolatorEvent extends Event {
+    /**
+     * The class of the interpolator
+     */
+    @Label("Interpolator")
+    public Class<?> interpolator;
+    /**
+     * What was computed
+     */
+    @Label("Structure")
+    public String structure;
+    /**
+     * The number of nodes interpolated
+     */
+    @Label("Nodes")
+    public int nodeCount;
+}
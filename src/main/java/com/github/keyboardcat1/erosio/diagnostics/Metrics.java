@@ -0,0 +1,149 @@
+package com.github.keyboardcat1.erosio.diagnostics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of named {@link Counter}s and {@link Histogram}s updated by the library when run with
+ * {@code -Derosio.metrics=true}, durations being recorded in nanoseconds and allocations in bytes. <br/>
+ * When disabled, instrumented code only tests {@link #ENABLED}, which the JIT folds away.
+ */
+public final class Metrics {
+    /**
+     * Whether the library records metrics
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("erosio.metrics");
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final com.sun.management.ThreadMXBean threads = threadBean();
+
+    private Metrics() {
+    }
+
+    /**
+     * The counter registered under a name, registering it first if needed
+     *
+     * @param name The name of the counter
+     * @return The counter
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    /**
+     * The histogram registered under a name, registering it first if needed
+     *
+     * @param name The name of the histogram
+     * @return The histogram
+     */
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * Every registered counter
+     *
+     * @return The counters sorted by name
+     */
+    public static Map<String, Counter> counters() {
+        return new TreeMap<>(counters);
+    }
+
+    /**
+     * Every registered histogram
+     *
+     * @return The histograms sorted by name
+     */
+    public static Map<String, Histogram> histograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Resets every registered metric to zero
+     */
+    public static void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(Histogram::reset);
+    }
+
+    /**
+     * The metrics in the Prometheus text exposition format, names being prefixed with {@code erosio_} and dots
+     * replaced by underscores
+     *
+     * @return The current value of every metric
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        counters().forEach((name, counter) -> {
+            String metric = metricName(name);
+            out.append("# TYPE ").append(metric).append(" counter\n");
+            out.append(metric).append(' ').append(counter.get()).append('\n');
+        });
+        histograms().forEach((name, histogram) -> {
+            String metric = metricName(name);
+            out.append("# TYPE ").append(metric).append(" histogram\n");
+            long[] buckets = histogram.buckets();
+            long count = histogram.count();
+            long cumulative = 0;
+            // only the buckets from the first to the last non-empty one
+            for (int i = 0; i < buckets.length - 1 && cumulative < count; i++) {
+                cumulative += buckets[i];
+                if (cumulative == 0) continue;
+                out.append(metric).append("_bucket{le=\"").append((1L << i) - 1).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(metric).append("_bucket{le=\"+Inf\"} ").append(count).append('\n');
+            out.append(metric).append("_sum ").append(histogram.sum()).append('\n');
+            out.append(metric).append("_count ").append(count).append('\n');
+        });
+        return out.toString();
+    }
+
+    /**
+     * Starts timing an operation
+     *
+     * @return The current time in nanoseconds, 0 when disabled
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the duration of an operation started with {@link #start()}
+     *
+     * @param name  The name of the histogram
+     * @param start The value returned by {@link #start()}
+     */
+    public static void stop(String name, long start) {
+        if (ENABLED) histogram(name).record(System.nanoTime() - start);
+    }
+
+    /**
+     * The number of bytes allocated by the calling thread so far
+     *
+     * @return The allocated bytes, 0 when disabled or not supported by the JVM
+     */
+    public static long allocatedBytes() {
+        return ENABLED && threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    private static String metricName(String name) {
+        return "erosio_" + name.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (!ENABLED) return null;
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                    && bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                return bean;
+            }
+        } catch (LinkageError | UnsupportedOperationException e) {
+            // jdk.management is not available
+        }
+        return null;
+    }
+}
@@ -0,0 +1,222 @@
+package com.github.keyboardcat1.erosio.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes heights as a tiled single-band 32-bit float GeoTIFF, georeferenced in erosion basis. <br/>
+ * Pixel (x, y) is placed at {@code (minX + x * step, minY + y * step)} through a ModelTransformationTag with the
+ * PixelIsPoint raster type, and missing heights are NaN, declared as the no-data value.
+ */
+public final class GeoTIFFExporter {
+    private static final short TYPE_ASCII = 2;
+    private static final short TYPE_SHORT = 3;
+    private static final short TYPE_LONG = 4;
+    private static final short TYPE_DOUBLE = 12;
+    private static final long CLASSIC_TIFF_LIMIT = 0xFFFFFFFFL;
+
+    /**
+     * The compression applied to every tile
+     */
+    public enum Compression {
+        /**
+         * Tiles are stored as is
+         */
+        NONE(1),
+        /**
+         * Tiles are stored as zlib streams
+         */
+        DEFLATE(8);
+
+        private final short code;
+
+        Compression(int code) {
+            this.code = (short) code;
+        }
+    }
+
+    private GeoTIFFExporter() {
+    }
+
+    /**
+     * Writes a GeoTIFF file
+     *
+     * @param source      The {@link HeightSource} to export
+     * @param tileSize    The number of pixels along each side of a tile, a multiple of 16
+     * @param compression The {@link Compression} of the tiles
+     * @param file        The file to write, replaced if it exists
+     * @throws IOException If the file cannot be written or exceeds the 4GB limit of classic TIFF
+     */
+    public static void write(HeightSource source, int tileSize, Compression compression, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(source, tileSize, compression, channel);
+        }
+    }
+
+    /**
+     * Streams a GeoTIFF to a channel, interpolating and compressing tiles in parallel. The channel is written
+     * sequentially from its current position, apart from the header being patched once every tile is written.
+     *
+     * @param source      The {@link HeightSource} to export
+     * @param tileSize    The number of pixels along each side of a tile, a multiple of 16
+     * @param compression The {@link Compression} of the tiles
+     * @param channel     The channel to write to
+     * @throws IOException If the channel cannot be written or the file exceeds the 4GB limit of classic TIFF
+     */
+    public static void write(HeightSource source, int tileSize, Compression compression, SeekableByteChannel channel) throws IOException {
+        if (tileSize <= 0 || tileSize % 16 != 0)
+            throw new IllegalArgumentException("The tile size " + tileSize + " is not a positive multiple of 16");
+        long start = channel.position();
+        ByteBuffer header = littleEndian(8);
+        header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(0);
+        writeFully(channel, header.flip());
+
+        int tilesX = (source.width + tileSize - 1) / tileSize;
+        int tilesY = (source.height + tileSize - 1) / tileSize;
+        int tiles = tilesX * tilesY;
+        long[] offsets = new long[tiles];
+        long[] byteCounts = new long[tiles];
+        int[] written = {0};
+        OrderedPipeline.run(tiles, tile -> encodeTile(source, tile % tilesX, tile / tilesX, tileSize, compression), data -> {
+            int tile = written[0]++;
+            offsets[tile] = channel.position() - start;
+            byteCounts[tile] = data.remaining();
+            writeFully(channel, data);
+        });
+
+        // the IFD follows the tiles, on a word boundary
+        if ((channel.position() - start) % 2 != 0) writeFully(channel, ByteBuffer.allocate(1));
+        long ifdOffset = channel.position() - start;
+        Directory directory = new Directory();
+        directory.add(256, TYPE_LONG, source.width);                       // ImageWidth
+        directory.add(257, TYPE_LONG, source.height);                      // ImageLength
+        directory.add(258, TYPE_SHORT, 32);                                // BitsPerSample
+        directory.add(259, TYPE_SHORT, compression.code);                  // Compression
+        directory.add(262, TYPE_SHORT, 1);                                 // PhotometricInterpretation: BlackIsZero
+        directory.add(277, TYPE_SHORT, 1);                                 // SamplesPerPixel
+        directory.add(284, TYPE_SHORT, 1);                                 // PlanarConfiguration: chunky
+        directory.add(322, TYPE_LONG, tileSize);                           // TileWidth
+        directory.add(323, TYPE_LONG, tileSize);                           // TileLength
+        directory.add(324, TYPE_LONG, offsets);                            // TileOffsets
+        directory.add(325, TYPE_LONG, byteCounts);                         // TileByteCounts
+        directory.add(339, TYPE_SHORT, 3);                                 // SampleFormat: IEEE float
+        directory.add(34264, source.step, 0, 0, source.minX,               // ModelTransformationTag
+                0, source.step, 0, source.minY,
+                0, 0, 0, 0,
+                0, 0, 0, 1);
+        directory.add(34735, TYPE_SHORT, new long[]{1, 1, 0, 1,            // GeoKeyDirectoryTag
+                1025, 0, 1, 2});                                           // GTRasterTypeGeoKey: PixelIsPoint
+        directory.add(42113, "nan");                                       // GDAL_NODATA
+        ByteBuffer ifd = directory.encode(ifdOffset);
+        if (ifdOffset + ifd.remaining() > CLASSIC_TIFF_LIMIT)
+            throw new IOException("The GeoTIFF exceeds the 4GB limit of classic TIFF");
+        writeFully(channel, ifd);
+
+        long end = channel.position();
+        channel.position(start + 4);
+        writeFully(channel, littleEndian(4).putInt((int) ifdOffset).flip());
+        channel.position(end);
+    }
+
+    private static ByteBuffer encodeTile(HeightSource source, int tileX, int tileY, int tileSize, Compression compression) {
+        int x0 = tileX * tileSize, y0 = tileY * tileSize;
+        int width = Math.min(tileSize, source.width - x0);
+        int height = Math.min(tileSize, source.height - y0);
+        double[] heights = new double[width * height];
+        source.read(x0, y0, width, height, heights);
+
+        // edge tiles are padded to full size
+        ByteBuffer raw = littleEndian(4 * tileSize * tileSize);
+        for (int y = 0; y < tileSize; y++)
+            for (int x = 0; x < tileSize; x++)
+                raw.putFloat(x < width && y < height ? (float) heights[y * width + x] : Float.NaN);
+        raw.flip();
+        if (compression == Compression.NONE) return raw;
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.remaining() / 2 + 64);
+        byte[] buffer = new byte[64 * 1024];
+        while (!deflater.finished())
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+        return ByteBuffer.wrap(compressed.toByteArray());
+    }
+
+    private static ByteBuffer littleEndian(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeFully(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * An image file directory, its entries added in ascending tag order
+     */
+    private static class Directory {
+        private final List<Entry> entries = new ArrayList<>();
+
+        void add(int tag, short type, long value) {
+            add(tag, type, new long[]{value});
+        }
+
+        void add(int tag, short type, long[] values) {
+            ByteBuffer data = littleEndian(values.length * (type == TYPE_SHORT ? 2 : 4));
+            for (long value : values) {
+                if (type == TYPE_SHORT) data.putShort((short) value);
+                else data.putInt((int) value);
+            }
+            entries.add(new Entry(tag, type, values.length, data.array()));
+        }
+
+        void add(int tag, double... values) {
+            ByteBuffer data = littleEndian(8 * values.length);
+            for (double value : values) data.putDouble(value);
+            entries.add(new Entry(tag, TYPE_DOUBLE, values.length, data.array()));
+        }
+
+        void add(int tag, String value) {
+            byte[] data = (value + '\0').getBytes(StandardCharsets.US_ASCII);
+            entries.add(new Entry(tag, TYPE_ASCII, data.length, data));
+        }
+
+        ByteBuffer encode(long offset) {
+            int tableBytes = 2 + 12 * entries.size() + 4;
+            int dataBytes = 0;
+            for (Entry entry : entries)
+                if (entry.data.length > 4) dataBytes += entry.data.length + entry.data.length % 2;
+            ByteBuffer out = littleEndian(tableBytes + dataBytes);
+            out.putShort((short) entries.size());
+            long dataOffset = offset + tableBytes;
+            for (Entry entry : entries) {
+                out.putShort((short) entry.tag).putShort(entry.type).putInt(entry.count);
+                if (entry.data.length <= 4) {
+                    out.put(entry.data).put(new byte[4 - entry.data.length]);
+                } else {
+                    out.putInt((int) dataOffset);
+                    dataOffset += entry.data.length + entry.data.length % 2;
+                }
+            }
+            out.putInt(0); // no further IFD
+            for (Entry entry : entries)
+                if (entry.data.length > 4) out.put(entry.data).put(new byte[entry.data.length % 2]);
+            return out.flip();
+        }
+
+        private record Entry(int tag, short type, int count, byte[] data) {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.keyboardcat1.erosio.export;
+
+import com.github.keyboardcat1.erosio.interpolation.HeightRaster;
+import com.github.keyboardcat1.erosio.interpolation.Interpolator;
+import com.github.keyboardcat1.erosio.interpolation.MappedHeightRaster;
+
+/**
+ * A grid of heights read region by region, pixel (x, y) lying at {@code (minX + x * step, minY + y * step)} in
+ * erosion basis
+ */
+public abstract class HeightSource {
+    /**
+     * The number of pixels along the X axis
+     */
+    public final int width;
+    /**
+     * The number of pixels along the Y axis
+     */
+    public final int height;
+    /**
+     * The X coordinate of the first pixel in erosion basis
+     */
+    public final double minX;
+    /**
+     * The Y coordinate of the first pixel in erosion basis
+     */
+    public final double minY;
+    /**
+     * The distance between two neighboring pixels in erosion basis
+     */
+    public final double step;
+
+    /**
+     * A grid of heights
+     *
+     * @param width  The number of pixels along the X axis
+     * @param height The number of pixels along the Y axis
+     * @param minX   The X coordinate of the first pixel in erosion basis
+     * @param minY   The Y coordinate of the first pixel in erosion basis
+     * @param step   The distance between two neighboring pixels in erosion basis
+     */
+    protected HeightSource(int width, int height, double minX, double minY, double step) {
+        this.width = width;
+        this.height = height;
+        this.minX = minX;
+        this.minY = minY;
+        this.step = step;
+    }
+
+    /**
+     * Reads a region of pixels, possibly from several threads at once
+     *
+     * @param x0     The X index of the region's first pixel
+     * @param y0     The Y index of the region's first pixel
+     * @param width  The number of pixels along the X axis
+     * @param height The number of pixels along the Y axis
+     * @param out    The output heights in row-major order, NaN where there is no height
+     */
+    public abstract void read(int x0, int y0, int width, int height, double[] out);
+
+    /**
+     * Samples an {@link Interpolator} on a grid
+     *
+     * @param interpolator The {@link Interpolator} to sample, called from several threads at once
+     * @param minX         The X coordinate of the first pixel in erosion basis
+     * @param minY         The Y coordinate of the first pixel in erosion basis
+     * @param step         The distance between two neighboring pixels in erosion basis
+     * @param width        The number of pixels along the X axis
+     * @param height       The number of pixels along the Y axis
+     * @return The sampled grid
+     */
+    public static HeightSource of(Interpolator interpolator, double minX, double minY, double step, int width, int height) {
+        return new HeightSource(width, height, minX, minY, step) {
+            @Override
+            public void read(int x0, int y0, int width, int height, double[] out) {
+                double[] heights = interpolator.interpolate(minX + x0 * step, minY + y0 * step, step, width, height);
+                System.arraycopy(heights, 0, out, 0, width * height);
+            }
+        };
+    }
+
+    /**
+     * Reads a {@link HeightRaster}
+     *
+     * @param raster The {@link HeightRaster} to read
+     * @param minX   The X coordinate of the raster's first pixel in erosion basis
+     * @param minY   The Y coordinate of the raster's first pixel in erosion basis
+     * @param step   A pixel's dimension in erosion basis
+     * @return The raster as a source
+     */
+    public static HeightSource of(HeightRaster raster, double minX, double minY, double step) {
+        return new HeightSource(raster.width, raster.height, minX, minY, step) {
+            @Override
+            public void read(int x0, int y0, int width, int height, double[] out) {
+                for (int y = 0; y < height; y++)
+                    for (int x = 0; x < width; x++)
+                        out[y * width + x] = raster.get(x0 + x, y0 + y);
+            }
+        };
+    }
+
+    /**
+     * Reads a {@link MappedHeightRaster} at the coordinates stored in its file
+     *
+     * @param raster The {@link MappedHeightRaster} to read
+     * @return The raster as a source
+     */
+    public static HeightSource of(MappedHeightRaster raster) {
+        return of(raster, raster.minX, raster.minY, raster.pixelSize);
+    }
+}
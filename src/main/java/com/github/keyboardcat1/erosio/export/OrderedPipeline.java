@@ -0,0 +1,41 @@
+package com.github.keyboardcat1.erosio.export;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+
+/**
+ * Encodes chunks in parallel on the common pool while writing them in order, keeping a bounded number in flight
+ */
+final class OrderedPipeline {
+    private OrderedPipeline() {
+    }
+
+    static <T> void run(int count, IntFunction<T> encoder, Writer<T> writer) throws IOException {
+        int window = 2 * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        ArrayDeque<CompletableFuture<T>> inFlight = new ArrayDeque<>(window);
+        int next = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                for (; next < count && next < i + window; next++) {
+                    final int chunk = next;
+                    inFlight.add(CompletableFuture.supplyAsync(() -> encoder.apply(chunk)));
+                }
+                writer.write(inFlight.poll().join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        } finally {
+            inFlight.forEach(future -> future.cancel(false));
+        }
+    }
+
+    interface Writer<T> {
+        void write(T chunk) throws IOException;
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.keyboardcat1.erosio.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes heights as a 16-bit grayscale PNG, linearly mapping a height range to the full range of gray levels. <br/>
+ * Strips of rows are deflated independently, each ending on a flush boundary, so that they can be compressed in
+ * parallel while still forming a single valid zlib stream.
+ */
+public final class PNGExporter {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int STRIP_ROWS = 32;
+    private static final int FILTER_SUB = 1;
+
+    private PNGExporter() {
+    }
+
+    /**
+     * Writes a PNG file
+     *
+     * @param source    The {@link HeightSource} to export
+     * @param minHeight The height mapped to black, lower heights and missing heights being black
+     * @param maxHeight The height mapped to white, higher heights being white
+     * @param file      The file to write, replaced if it exists
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(HeightSource source, double minHeight, double maxHeight, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(source, minHeight, maxHeight, channel);
+        }
+    }
+
+    /**
+     * Streams a PNG to a channel, interpolating and compressing strips of rows in parallel
+     *
+     * @param source    The {@link HeightSource} to export
+     * @param minHeight The height mapped to black, lower heights and missing heights being black
+     * @param maxHeight The height mapped to white, higher heights being white
+     * @param channel   The channel to write to
+     * @throws IOException If the channel cannot be written
+     */
+    public static void write(HeightSource source, double minHeight, double maxHeight, WritableByteChannel channel) throws IOException {
+        writeFully(channel, ByteBuffer.wrap(SIGNATURE));
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(source.width).putInt(source.height)
+                .put((byte) 16)  // bit depth
+                .put((byte) 0)   // grayscale
+                .put((byte) 0)   // deflate
+                .put((byte) 0)   // adaptive filtering
+                .put((byte) 0);  // no interlace
+        writeChunk(channel, "IHDR", header.array(), header.position());
+
+        double scale = maxHeight > minHeight ? 0xFFFF / (maxHeight - minHeight) : 0;
+        int strips = (source.height + STRIP_ROWS - 1) / STRIP_ROWS;
+        Adler32 adler = new Adler32();
+        OrderedPipeline.run(strips, strip -> encodeStrip(source, strip, strips, minHeight, scale), encoded -> {
+            adler.update(encoded.raw);
+            ByteArrayOutputStream data = encoded.compressed;
+            if (encoded.strip == strips - 1) {
+                long checksum = adler.getValue();
+                data.write((int) (checksum >>> 24));
+                data.write((int) (checksum >>> 16));
+                data.write((int) (checksum >>> 8));
+                data.write((int) checksum);
+            }
+            writeChunk(channel, "IDAT", data.toByteArray(), data.size());
+        });
+        writeChunk(channel, "IEND", new byte[0], 0);
+    }
+
+    private static EncodedStrip encodeStrip(HeightSource source, int strip, int strips, double minHeight, double scale) {
+        int y0 = strip * STRIP_ROWS;
+        int rows = Math.min(STRIP_ROWS, source.height - y0);
+        int width = source.width;
+        double[] heights = new double[width * rows];
+        source.read(0, y0, width, rows, heights);
+
+        int rowBytes = 1 + 2 * width;
+        byte[] raw = new byte[rowBytes * rows];
+        for (int y = 0; y < rows; y++) {
+            int row = y * rowBytes;
+            raw[row] = FILTER_SUB;
+            int previous = 0;
+            for (int x = 0; x < width; x++) {
+                double height = heights[y * width + x];
+                int gray = Double.isNaN(height) ? 0 :
+                        (int) Math.max(0, Math.min(0xFFFF, Math.round((height - minHeight) * scale)));
+                // the Sub filter stores each byte minus the byte of the previous sample
+                raw[row + 1 + 2 * x] = (byte) ((gray >>> 8) - (previous >>> 8));
+                raw[row + 2 + 2 * x] = (byte) (gray - previous);
+                previous = gray;
+            }
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(raw);
+        boolean last = strip == strips - 1;
+        if (last) deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+        if (strip == 0) {
+            // zlib header, the Adler-32 trailer being appended after the last strip
+            compressed.write(0x78);
+            compressed.write(0x9C);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        while (true) {
+            int n = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            compressed.write(buffer, 0, n);
+            if (last ? deflater.finished() : n < buffer.length) break;
+        }
+        deflater.end();
+        return new EncodedStrip(strip, raw, compressed);
+    }
+
+    private static void writeChunk(WritableByteChannel channel, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        ByteBuffer chunk = ByteBuffer.allocate(12 + length);
+        chunk.putInt(length).put(typeBytes).put(data, 0, length).putInt((int) crc.getValue());
+        writeFully(channel, chunk.flip());
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private record EncodedStrip(int strip, byte[] raw, ByteArrayOutputStream compressed) {
+    }
+}
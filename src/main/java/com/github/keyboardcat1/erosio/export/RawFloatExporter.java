@@ -0,0 +1,56 @@
+package com.github.keyboardcat1.erosio.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes heights as headerless little-endian 32-bit floats in row-major order, NaN where there is no height
+ */
+public final class RawFloatExporter {
+    private static final int STRIP_ROWS = 32;
+
+    private RawFloatExporter() {
+    }
+
+    /**
+     * Writes a raw float file
+     *
+     * @param source The {@link HeightSource} to export
+     * @param file   The file to write, replaced if it exists
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(HeightSource source, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(source, channel);
+        }
+    }
+
+    /**
+     * Streams raw floats to a channel, interpolating and encoding strips of rows in parallel
+     *
+     * @param source  The {@link HeightSource} to export
+     * @param channel The channel to write to
+     * @throws IOException If the channel cannot be written
+     */
+    public static void write(HeightSource source, WritableByteChannel channel) throws IOException {
+        int strips = (source.height + STRIP_ROWS - 1) / STRIP_ROWS;
+        OrderedPipeline.run(strips, strip -> {
+            int y0 = strip * STRIP_ROWS;
+            int rows = Math.min(STRIP_ROWS, source.height - y0);
+            double[] heights = new double[source.width * rows];
+            source.read(0, y0, source.width, rows, heights);
+            ByteBuffer out = ByteBuffer.allocate(4 * heights.length).order(ByteOrder.LITTLE_ENDIAN);
+            for (double height : heights)
+                out.putFloat((float) height);
+            return out.flip();
+        }, buffer -> {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        });
+    }
+}
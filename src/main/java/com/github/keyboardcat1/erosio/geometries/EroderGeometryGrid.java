@@ -1,6 +1,8 @@
 package com.github.keyboardcat1.erosio.geometries;
 
 import com.github.keyboardcat1.erosio.EroderGeometry;
+import com.github.keyboardcat1.erosio.diagnostics.GeometryEvent;
+import com.github.keyboardcat1.erosio.diagnostics.Metrics;
 import org.kynosarges.tektosyne.geometry.GeoUtils;
 import org.kynosarges.tektosyne.geometry.PointD;
 import org.kynosarges.tektosyne.geometry.PolygonLocation;
@@ -22,6 +24,9 @@ public class EroderGeometryGrid extends EroderGeometry {
      */
     public EroderGeometryGrid(PointD[] boundingPolygon, double minDistance) {
         super(boundingPolygon, minDistance + EPSILON);
+        GeometryEvent event = new GeometryEvent();
+        event.begin();
+        long start = Metrics.start();
         final RectD bounds = RectD.circumscribe(boundingPolygon);
         minDistance = minDistance + EPSILON;
         int horizontalCount = (int) (bounds.width() / minDistance);
@@ -46,5 +51,13 @@ public class EroderGeometryGrid extends EroderGeometry {
         for (PointD node : this.graph.keySet()) {
             areaMap.put(node, minDistance * minDistance);
         }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.geometry = getClass();
+            event.nodeCount = graph.size();
+            event.commit();
+        }
+        Metrics.stop("geometry.nanos", start);
     }
 }
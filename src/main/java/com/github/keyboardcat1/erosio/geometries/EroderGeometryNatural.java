@@ -1,6 +1,8 @@
 package com.github.keyboardcat1.erosio.geometries;
 
 import com.github.keyboardcat1.erosio.EroderGeometry;
+import com.github.keyboardcat1.erosio.diagnostics.GeometryEvent;
+import com.github.keyboardcat1.erosio.diagnostics.Metrics;
 import org.kynosarges.tektosyne.geometry.*;
 import org.kynosarges.tektosyne.subdivision.Subdivision;
 import org.kynosarges.tektosyne.subdivision.SubdivisionEdge;
@@ -37,6 +39,9 @@ public class EroderGeometryNatural extends EroderGeometry {
         this.boundingPolygon = boundingPolygon;
         this.inverseSampleDensity = inverseSampleDensity;
         this.seed = seed;
+        GeometryEvent event = new GeometryEvent();
+        event.begin();
+        long start = Metrics.start();
 
         RectD bounds = RectD.circumscribe(boundingPolygon);
         PointD[] points = PoissonDiskSampler.sample(bounds, inverseSampleDensity, seed)
@@ -58,6 +63,13 @@ public class EroderGeometryNatural extends EroderGeometry {
         for (int i = 0; i < voronoiResults.generatorSites.length; i++)
             areaMap.put(voronoiResults.generatorSites[i], Math.abs(GeoUtils.polygonArea(voronoiResults.voronoiRegions()[i])));
 
+        event.end();
+        if (event.shouldCommit()) {
+            event.geometry = getClass();
+            event.nodeCount = graph.size();
+            event.commit();
+        }
+        Metrics.stop("geometry.nanos", start);
     }
 
     private static class PoissonDiskSampler {
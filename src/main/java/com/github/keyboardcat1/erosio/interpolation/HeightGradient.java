@@ -0,0 +1,29 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+/**
+ * An interpolated height along with its gradient
+ *
+ * @param height    The interpolated height
+ * @param gradientX The derivative of the height along the X axis
+ * @param gradientY The derivative of the height along the Y axis
+ */
+public record HeightGradient(double height, double gradientX, double gradientY) {
+    /**
+     * The unit normal of the surface, pointing up
+     *
+     * @return The X, Y and Z components of the normal
+     */
+    public double[] normal() {
+        double length = Math.sqrt(gradientX * gradientX + gradientY * gradientY + 1);
+        return new double[]{-gradientX / length, -gradientY / length, 1 / length};
+    }
+
+    /**
+     * The steepness of the surface
+     *
+     * @return The slope angle in degrees
+     */
+    public double slopeDegrees() {
+        return Math.toDegrees(Math.atan(Math.sqrt(gradientX * gradientX + gradientY * gradientY)));
+    }
+}
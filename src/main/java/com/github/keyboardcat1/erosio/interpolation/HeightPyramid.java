@@ -0,0 +1,282 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.stream.IntStream;
+
+/**
+ * A mipmapped level-of-detail pyramid of heights, each level halving the resolution of the previous one and keeping
+ * the mean, minimum and maximum heights of the pixels it covers
+ */
+public class HeightPyramid extends Interpolator {
+    private final double[][] mean;
+    private final double[][] min;
+    private final double[][] max;
+    private final int[] widths;
+    private final int[] heights;
+    private final double minX;
+    private final double minY;
+
+    /**
+     * A pixel's dimension in erosion basis at the finest level
+     */
+    public final double pixelSize;
+
+    /**
+     * A pyramid built from a {@link InterpolatorCPURasterizer}'s raster
+     *
+     * @param rasterizer The {@link InterpolatorCPURasterizer} whose raster, copied, becomes the finest level, covering
+     *                   the same area at the same pixel size
+     */
+    public HeightPyramid(InterpolatorCPURasterizer rasterizer) {
+        this(copy(rasterizer.raster()), rasterizer.raster().width, rasterizer.raster().height,
+                rasterizer.minX(), rasterizer.minY(), rasterizer.pixelSize);
+    }
+
+    /**
+     * A pyramid built from an {@link Interpolator} sampled at the center of every pixel of its finest level
+     *
+     * @param interpolator The {@link Interpolator} to sample
+     * @param bounds       The area covered by the pyramid
+     * @param pixelSize    A pixel's dimension in erosion basis at the finest level
+     */
+    public HeightPyramid(Interpolator interpolator, RectD bounds, double pixelSize) {
+        this(sample(interpolator, bounds, pixelSize), pixels(bounds.width(), pixelSize),
+                pixels(bounds.height(), pixelSize), bounds.min.x, bounds.min.y, pixelSize);
+    }
+
+    private HeightPyramid(double[] finest, int width, int height, double minX, double minY, double pixelSize) {
+        this.pixelSize = pixelSize;
+        this.minX = minX;
+        this.minY = minY;
+
+        int levelCount = 1;
+        while ((width - 1 >> levelCount - 1) > 0 || (height - 1 >> levelCount - 1) > 0) levelCount++;
+        mean = new double[levelCount][];
+        min = new double[levelCount][];
+        max = new double[levelCount][];
+        widths = new int[levelCount];
+        heights = new int[levelCount];
+
+        widths[0] = width;
+        heights[0] = height;
+        mean[0] = min[0] = max[0] = finest;
+
+        for (int level = 1; level < levelCount; level++)
+            buildLevel(level);
+    }
+
+    /**
+     * The number of levels, the last one holding a single pixel
+     *
+     * @return The number of levels in the pyramid
+     */
+    public int levelCount() {
+        return mean.length;
+    }
+
+    /**
+     * The number of pixels along the X axis at a level
+     *
+     * @param level The level, 0 being the finest
+     * @return The width of the level in pixels
+     */
+    public int width(int level) {
+        return widths[level];
+    }
+
+    /**
+     * The number of pixels along the Y axis at a level
+     *
+     * @param level The level, 0 being the finest
+     * @return The height of the level in pixels
+     */
+    public int height(int level) {
+        return heights[level];
+    }
+
+    @Override
+    public double interpolate(PointD point) {
+        return interpolate(point.x, point.y, 0);
+    }
+
+    @Override
+    public double interpolate(double x, double y) {
+        return interpolate(x, y, 0);
+    }
+
+    /**
+     * Interpolates the height of a point along with its gradient, by differences between the neighboring pixels of
+     * the finest level
+     *
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of that point
+     * @return The interpolated height and gradient at the point
+     */
+    @Override
+    public HeightGradient interpolateGradient(double x, double y) {
+        int i = index(x, y, 0);
+        int ix = i % widths[0], iy = i / widths[0];
+        return new HeightGradient(mean[0][i], difference(ix, iy, 1, 0), difference(ix, iy, 0, 1));
+    }
+
+    /**
+     * The mean height of the pixel containing a point at a level
+     *
+     * @param x     The X coordinate of the point
+     * @param y     The Y coordinate of the point
+     * @param level The level, 0 being the finest
+     * @return The mean height of the pixel, NaN if none of its samples could be interpolated
+     */
+    public double interpolate(double x, double y, int level) {
+        return mean[level][index(x, y, level)];
+    }
+
+    /**
+     * The minimum height of the pixel containing a point at a level
+     *
+     * @param x     The X coordinate of the point
+     * @param y     The Y coordinate of the point
+     * @param level The level, 0 being the finest
+     * @return The minimum height of the pixel, NaN if none of its samples could be interpolated
+     */
+    public double minHeight(double x, double y, int level) {
+        return min[level][index(x, y, level)];
+    }
+
+    /**
+     * The maximum height of the pixel containing a point at a level
+     *
+     * @param x     The X coordinate of the point
+     * @param y     The Y coordinate of the point
+     * @param level The level, 0 being the finest
+     * @return The maximum height of the pixel, NaN if none of its samples could be interpolated
+     */
+    public double maxHeight(double x, double y, int level) {
+        return max[level][index(x, y, level)];
+    }
+
+    /**
+     * The minimum height over every finest-level pixel intersecting a rectangle
+     *
+     * @param rect The rectangle to search
+     * @return The minimum height, NaN if no sample in the rectangle could be interpolated
+     */
+    public double minHeight(RectD rect) {
+        return range(rect, false);
+    }
+
+    /**
+     * The maximum height over every finest-level pixel intersecting a rectangle
+     *
+     * @param rect The rectangle to search
+     * @return The maximum height, NaN if no sample in the rectangle could be interpolated
+     */
+    public double maxHeight(RectD rect) {
+        return range(rect, true);
+    }
+
+    private static double[] copy(HeightRaster raster) {
+        int width = raster.width;
+        double[] out = new double[width * raster.height];
+        IntStream.range(0, raster.height).parallel().forEach(y -> {
+            for (int x = 0; x < width; x++)
+                out[y * width + x] = raster.get(x, y);
+        });
+        return out;
+    }
+
+    private static double[] sample(Interpolator interpolator, RectD bounds, double pixelSize) {
+        int width = pixels(bounds.width(), pixelSize);
+        int height = pixels(bounds.height(), pixelSize);
+        double[] out = new double[width * height];
+        IntStream.range(0, height).parallel().forEach(y -> System.arraycopy(
+                interpolator.interpolate(bounds.min.x + pixelSize / 2, bounds.min.y + (y + 0.5) * pixelSize,
+                        pixelSize, width, 1), 0, out, y * width, width));
+        return out;
+    }
+
+    private static int pixels(double length, double pixelSize) {
+        return Math.max(1, (int) Math.ceil(length / pixelSize));
+    }
+
+    private void buildLevel(int level) {
+        int width = widths[level] = (widths[level - 1] + 1) / 2;
+        int height = heights[level] = (heights[level - 1] + 1) / 2;
+        int fineWidth = widths[level - 1];
+        int fineHeight = heights[level - 1];
+        double[] fineMean = mean[level - 1], fineMin = min[level - 1], fineMax = max[level - 1];
+        double[] levelMean = mean[level] = new double[width * height];
+        double[] levelMin = min[level] = new double[width * height];
+        double[] levelMax = max[level] = new double[width * height];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int x = 0; x < width; x++) {
+                double sum = 0, lo = Double.NaN, hi = Double.NaN;
+                int count = 0;
+                for (int fy = 2 * y; fy < Math.min(2 * y + 2, fineHeight); fy++)
+                    for (int fx = 2 * x; fx < Math.min(2 * x + 2, fineWidth); fx++) {
+                        int i = fy * fineWidth + fx;
+                        if (Double.isNaN(fineMean[i])) continue;
+                        sum += fineMean[i];
+                        count++;
+                        lo = Double.isNaN(lo) ? fineMin[i] : Math.min(lo, fineMin[i]);
+                        hi = Double.isNaN(hi) ? fineMax[i] : Math.max(hi, fineMax[i]);
+                    }
+                levelMean[y * width + x] = count == 0 ? Double.NaN : sum / count;
+                levelMin[y * width + x] = lo;
+                levelMax[y * width + x] = hi;
+            }
+        });
+    }
+
+    // central difference between the neighboring finest pixels, one-sided where a neighbor has no height
+    private double difference(int x, int y, int dx, int dy) {
+        boolean forward = hasHeight(x + dx, y + dy);
+        boolean backward = hasHeight(x - dx, y - dy);
+        double high = mean[0][(forward ? y + dy : y) * widths[0] + (forward ? x + dx : x)];
+        double low = mean[0][(backward ? y - dy : y) * widths[0] + (backward ? x - dx : x)];
+        int span = (forward ? 1 : 0) + (backward ? 1 : 0);
+        return span == 0 ? 0 : (high - low) / (span * pixelSize);
+    }
+
+    private boolean hasHeight(int x, int y) {
+        return x >= 0 && x < widths[0] && y >= 0 && y < heights[0] && !Double.isNaN(mean[0][y * widths[0] + x]);
+    }
+
+    private int index(double x, double y, int level) {
+        double cellSize = pixelSize * (1 << level);
+        int ix = (int) Math.floor((x - minX) / cellSize);
+        int iy = (int) Math.floor((y - minY) / cellSize);
+        if (ix < 0 || ix >= widths[level] || iy < 0 || iy >= heights[level])
+            throw new IndexOutOfBoundsException(new PointD(x, y) + " does not lie within the pyramid");
+        return iy * widths[level] + ix;
+    }
+
+    private double range(RectD rect, boolean maximum) {
+        int x0 = Math.max(0, (int) Math.floor((rect.min.x - minX) / pixelSize));
+        int y0 = Math.max(0, (int) Math.floor((rect.min.y - minY) / pixelSize));
+        int x1 = Math.min(widths[0] - 1, (int) Math.floor((rect.max.x - minX) / pixelSize));
+        int y1 = Math.min(heights[0] - 1, (int) Math.floor((rect.max.y - minY) / pixelSize));
+        if (x0 > x1 || y0 > y1) return Double.NaN;
+        return range(levelCount() - 1, 0, 0, x0, y0, x1, y1, maximum);
+    }
+
+    // descends from a cell, using whole coarse cells wherever they lie within the finest-level pixel range
+    private double range(int level, int cx, int cy, int x0, int y0, int x1, int y1, boolean maximum) {
+        int cellX0 = cx << level, cellY0 = cy << level;
+        int cellX1 = cellX0 + (1 << level) - 1, cellY1 = cellY0 + (1 << level) - 1;
+        if (cellX0 > x1 || cellY0 > y1 || cellX1 < x0 || cellY1 < y0) return Double.NaN;
+        if (cellX0 >= x0 && cellY0 >= y0 && cellX1 <= x1 && cellY1 <= y1)
+            return (maximum ? max : min)[level][cy * widths[level] + cx];
+        double out = Double.NaN;
+        for (int dy = 0; dy <= 1; dy++) for (int dx = 0; dx <= 1; dx++) {
+            int fx = 2 * cx + dx, fy = 2 * cy + dy;
+            if (fx >= widths[level - 1] || fy >= heights[level - 1]) continue;
+            double value = range(level - 1, fx, fy, x0, y0, x1, y1, maximum);
+            if (Double.isNaN(out)) out = value;
+            else if (!Double.isNaN(value)) out = maximum ? Math.max(out, value) : Math.min(out, value);
+        }
+        return out;
+    }
+}
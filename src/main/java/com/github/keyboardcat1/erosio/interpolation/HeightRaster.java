@@ -0,0 +1,213 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import java.util.Arrays;
+
+/**
+ * A row-major grid of heights stored at a given {@link Precision}, where pixels that were never written read as NaN
+ */
+public abstract class HeightRaster {
+    // the largest 16-bit code marks pixels that were never written
+    static final int QUANTIZED_LEVELS = 0xFFFE;
+    static final short QUANTIZED_UNWRITTEN = (short) 0xFFFF;
+
+    /**
+     * The number of pixels along the X axis
+     */
+    public final int width;
+    /**
+     * The number of pixels along the Y axis
+     */
+    public final int height;
+    /**
+     * The {@link Precision} heights are stored at
+     */
+    public final Precision precision;
+
+    HeightRaster(int width, int height, Precision precision) {
+        this.width = width;
+        this.height = height;
+        this.precision = precision;
+    }
+
+    /**
+     * Allocates an empty raster
+     *
+     * @param width     The number of pixels along the X axis
+     * @param height    The number of pixels along the Y axis
+     * @param precision The {@link Precision} heights are stored at
+     * @param minHeight The lowest height representable when quantized, lower heights being clamped
+     * @param maxHeight The highest height representable when quantized, higher heights being clamped
+     * @return An empty raster
+     */
+    public static HeightRaster allocate(int width, int height, Precision precision, double minHeight, double maxHeight) {
+        return switch (precision) {
+            case DOUBLE -> new DoubleRaster(width, height);
+            case FLOAT -> new FloatRaster(width, height);
+            case QUANTIZED_16 -> new QuantizedRaster(width, height, minHeight, maxHeight);
+        };
+    }
+
+    /**
+     * Reads a height
+     *
+     * @param x The X index of the pixel
+     * @param y The Y index of the pixel
+     * @return The stored height, NaN if the pixel was never written
+     */
+    public abstract double get(int x, int y);
+
+    /**
+     * Writes a height
+     *
+     * @param x     The X index of the pixel
+     * @param y     The Y index of the pixel
+     * @param value The height to store, NaN marking the pixel as not written
+     */
+    public abstract void set(int x, int y, double value);
+
+    /**
+     * The largest difference between a height written to this raster and the height read back
+     *
+     * @return The maximum storage error for heights within the representable range
+     */
+    public abstract double maxError();
+
+    /**
+     * Whether a pixel lies within the raster and was written
+     *
+     * @param x The X index of the pixel
+     * @param y The Y index of the pixel
+     * @return Whether the pixel holds a height
+     */
+    public boolean isWritten(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height && !Double.isNaN(get(x, y));
+    }
+
+    // central difference between the neighboring pixels, one-sided where a neighbor was not written
+    double difference(int x, int y, int dx, int dy, double pixelSize) {
+        boolean forward = isWritten(x + dx, y + dy);
+        boolean backward = isWritten(x - dx, y - dy);
+        double high = get(forward ? x + dx : x, forward ? y + dy : y);
+        double low = get(backward ? x - dx : x, backward ? y - dy : y);
+        int span = (forward ? 1 : 0) + (backward ? 1 : 0);
+        return span == 0 ? 0 : (high - low) / (span * pixelSize);
+    }
+
+    static int arraySize(int width, int height) {
+        if ((long) width * height > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("A " + width + "x" + height + " raster does not fit in an array");
+        return width * height;
+    }
+
+    /**
+     * The storage precision of a {@link HeightRaster}
+     */
+    public enum Precision {
+        /**
+         * 64-bit floating point, 8 bytes per pixel
+         */
+        DOUBLE(8),
+        /**
+         * 32-bit floating point, 4 bytes per pixel
+         */
+        FLOAT(4),
+        /**
+         * 16-bit fixed point over a height range, 2 bytes per pixel
+         */
+        QUANTIZED_16(2);
+
+        /**
+         * The number of bytes taken by a pixel
+         */
+        public final int bytes;
+
+        Precision(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private static class DoubleRaster extends HeightRaster {
+        private final double[] heights;
+
+        DoubleRaster(int width, int height) {
+            super(width, height, Precision.DOUBLE);
+            heights = new double[arraySize(width, height)];
+            Arrays.fill(heights, Double.NaN);
+        }
+
+        @Override
+        public double get(int x, int y) {
+            return heights[y * width + x];
+        }
+
+        @Override
+        public void set(int x, int y, double value) {
+            heights[y * width + x] = value;
+        }
+
+        @Override
+        public double maxError() {
+            return 0;
+        }
+    }
+
+    private static class FloatRaster extends HeightRaster {
+        private final float[] heights;
+        private float maxMagnitude = 0;
+
+        FloatRaster(int width, int height) {
+            super(width, height, Precision.FLOAT);
+            heights = new float[arraySize(width, height)];
+            Arrays.fill(heights, Float.NaN);
+        }
+
+        @Override
+        public double get(int x, int y) {
+            return heights[y * width + x];
+        }
+
+        @Override
+        public void set(int x, int y, double value) {
+            heights[y * width + x] = (float) value;
+            if (Math.abs((float) value) > maxMagnitude) maxMagnitude = Math.abs((float) value);
+        }
+
+        @Override
+        public double maxError() {
+            return Math.ulp(maxMagnitude) / 2;
+        }
+    }
+
+    private static class QuantizedRaster extends HeightRaster {
+        private static final int LEVELS = QUANTIZED_LEVELS;
+        private static final short UNWRITTEN = QUANTIZED_UNWRITTEN;
+        private final short[] heights;
+        private final double minHeight;
+        private final double step;
+
+        QuantizedRaster(int width, int height, double minHeight, double maxHeight) {
+            super(width, height, Precision.QUANTIZED_16);
+            heights = new short[arraySize(width, height)];
+            Arrays.fill(heights, UNWRITTEN);
+            this.minHeight = minHeight;
+            this.step = maxHeight > minHeight ? (maxHeight - minHeight) / LEVELS : 1;
+        }
+
+        @Override
+        public double get(int x, int y) {
+            short code = heights[y * width + x];
+            return code == UNWRITTEN ? Double.NaN : minHeight + (code & 0xFFFF) * step;
+        }
+
+        @Override
+        public void set(int x, int y, double value) {
+            heights[y * width + x] = Double.isNaN(value) ? UNWRITTEN :
+                    (short) Math.max(0, Math.min(LEVELS, Math.round((value - minHeight) / step)));
+        }
+
+        @Override
+        public double maxError() {
+            return step / 2;
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package com.github.keyboardcat1.erosio.interpolation;
 
 import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.diagnostics.BulkQueryEvent;
+import com.github.keyboardcat1.erosio.diagnostics.InterpolatorEvent;
+import com.github.keyboardcat1.erosio.diagnostics.Metrics;
 import org.kynosarges.tektosyne.geometry.PointD;
 
 /**
  * The base interpolation class
  */
 public abstract class Interpolator {
+    private static final double GRADIENT_STEP = 1E-6;
 
     /**
      * The base interpolation class
@@ -16,6 +20,12 @@ public abstract class Interpolator {
     public Interpolator(EroderResults eroderResults) {
     }
 
+    /**
+     * The base class for interpolators that wrap another {@link Interpolator}
+     */
+    protected Interpolator() {
+    }
+
     /**
      * Interpolates the height of a point
      *
@@ -34,4 +44,145 @@ public abstract class Interpolator {
      * @return The interpolated height at the point
      */
     public abstract double interpolate(PointD point);
+
+    /**
+     * Interpolates the heights of a grid of points
+     *
+     * @param minX   The X coordinate of the first point
+     * @param minY   The Y coordinate of the first point
+     * @param step   The distance between two neighboring points
+     * @param width  The number of points along the X axis
+     * @param height The number of points along the Y axis
+     * @return The interpolated heights in row-major order, NaN where a point cannot be interpolated
+     */
+    public double[] interpolate(double minX, double minY, double step, int width, int height) {
+        BulkQueryEvent event = beginBulkQuery();
+        long start = Metrics.start();
+        double[] out = sample(minX, minY, step, width, height);
+        endBulkQuery(event, width, height, false, start);
+        return out;
+    }
+
+    private double[] sample(double minX, double minY, double step, int width, int height) {
+        double[] out = new double[width * height];
+        for (int y = 0; y < height; y++) for (int x = 0; x < width; x++) {
+            try {
+                out[y * width + x] = interpolate(minX + x * step, minY + y * step);
+            } catch (IndexOutOfBoundsException e) {
+                out[y * width + x] = Double.NaN;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Interpolates the heights of a grid of points into a {@link HeightRaster}
+     *
+     * @param minX      The X coordinate of the first point
+     * @param minY      The Y coordinate of the first point
+     * @param step      The distance between two neighboring points
+     * @param width     The number of points along the X axis
+     * @param height    The number of points along the Y axis
+     * @param precision The {@link HeightRaster.Precision} to store heights at
+     * @param minHeight The lowest height representable when quantized, lower heights being clamped
+     * @param maxHeight The highest height representable when quantized, higher heights being clamped
+     * @return The interpolated heights, NaN where a point cannot be interpolated
+     */
+    public HeightRaster interpolate(double minX, double minY, double step, int width, int height,
+                                    HeightRaster.Precision precision, double minHeight, double maxHeight) {
+        BulkQueryEvent event = beginBulkQuery();
+        long start = Metrics.start();
+        HeightRaster out = HeightRaster.allocate(width, height, precision, minHeight, maxHeight);
+        for (int y = 0; y < height; y++) {
+            double[] row = sample(minX, minY + y * step, step, width, 1);
+            for (int x = 0; x < width; x++)
+                out.set(x, y, row[x]);
+        }
+        endBulkQuery(event, width, height, false, start);
+        return out;
+    }
+
+    /**
+     * Interpolates the height of a point along with its gradient, by central differences unless overridden with an
+     * analytic derivative, or with differences between neighboring pixels where heights are constant over a pixel
+     *
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of that point
+     * @return The interpolated height and gradient at the point
+     */
+    public HeightGradient interpolateGradient(double x, double y) {
+        double h = GRADIENT_STEP * Math.max(1, Math.max(Math.abs(x), Math.abs(y)));
+        double gradientX = (interpolate(x + h, y) - interpolate(x - h, y)) / (2 * h);
+        double gradientY = (interpolate(x, y + h) - interpolate(x, y - h)) / (2 * h);
+        return new HeightGradient(interpolate(x, y), gradientX, gradientY);
+    }
+
+    /**
+     * Interpolates the heights and gradients of a grid of points
+     *
+     * @param minX      The X coordinate of the first point
+     * @param minY      The Y coordinate of the first point
+     * @param step      The distance between two neighboring points
+     * @param width     The number of points along the X axis
+     * @param height    The number of points along the Y axis
+     * @param heights   The output heights in row-major order, NaN where a point cannot be interpolated
+     * @param gradientX The output derivatives along the X axis in row-major order
+     * @param gradientY The output derivatives along the Y axis in row-major order
+     */
+    public void interpolateGradient(double minX, double minY, double step, int width, int height,
+                                    double[] heights, double[] gradientX, double[] gradientY) {
+        BulkQueryEvent event = beginBulkQuery();
+        long start = Metrics.start();
+        for (int y = 0; y < height; y++) for (int x = 0; x < width; x++) {
+            int i = y * width + x;
+            try {
+                HeightGradient sample = interpolateGradient(minX + x * step, minY + y * step);
+                heights[i] = sample.height();
+                gradientX[i] = sample.gradientX();
+                gradientY[i] = sample.gradientY();
+            } catch (IndexOutOfBoundsException e) {
+                heights[i] = gradientX[i] = gradientY[i] = Double.NaN;
+            }
+        }
+        endBulkQuery(event, width, height, true, start);
+    }
+
+    private static BulkQueryEvent beginBulkQuery() {
+        BulkQueryEvent event = new BulkQueryEvent();
+        event.begin();
+        return event;
+    }
+
+    private void endBulkQuery(BulkQueryEvent event, int width, int height, boolean gradients, long start) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.interpolator = getClass();
+            event.width = width;
+            event.height = height;
+            event.gradients = gradients;
+            event.commit();
+        }
+        if (Metrics.ENABLED) {
+            Metrics.stop("interpolation.bulk.nanos", start);
+            Metrics.counter("interpolation.bulk.points").add((long) width * height);
+        }
+    }
+
+    static InterpolatorEvent beginConstruction() {
+        InterpolatorEvent event = new InterpolatorEvent();
+        event.begin();
+        return event;
+    }
+
+    // commits the construction event of a precomputed structure and records its duration
+    static void endConstruction(InterpolatorEvent event, Class<?> interpolator, String structure, int nodeCount, long start) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.interpolator = interpolator;
+            event.structure = structure;
+            event.nodeCount = nodeCount;
+            event.commit();
+        }
+        Metrics.stop("interpolation." + structure + ".nanos", start);
+    }
 }
@@ -0,0 +1,169 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.diagnostics.InterpolatorEvent;
+import com.github.keyboardcat1.erosio.diagnostics.Metrics;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Pre-computed interpolation based on a 3D mesh, rasterized tile by tile into a memory-mapped file so that the
+ * raster's size is bounded by disk space rather than heap space
+ */
+public class InterpolatorCPURasterizerMapped extends Interpolator implements Closeable {
+    /**
+     * The {@link MappedHeightRaster} holding the rasterized heights
+     */
+    public final MappedHeightRaster raster;
+
+    /**
+     * Graphics-based interpolation based on a 3D mesh, written to a file
+     *
+     * @param eroderResults The {@link EroderResults} to interpolate
+     * @param pixelSize     A pixel's dimension in erosion basis on a hypothetical screen
+     * @param alpha         Mix coefficient between linear interpolation and Phong tessellation
+     * @param file          The file to write the raster to, replaced if it exists
+     * @param tileSize      The number of pixels along each side of a tile
+     * @param precision     The {@link HeightRaster.Precision} of the stored raster, quantized between the minimum and
+     *                      maximum heights of the tessellated mesh, which overshoots the {@link EroderResults} when
+     *                      alpha is positive
+     * @throws IllegalArgumentException If the tile size is not positive
+     */
+    public InterpolatorCPURasterizerMapped(EroderResults eroderResults, double pixelSize, double alpha, Path file,
+                                           int tileSize, HeightRaster.Precision precision) {
+        super(eroderResults);
+        InterpolatorEvent event = beginConstruction();
+        long start = Metrics.start();
+        RectD rectBounds = eroderResults.eroderGeometry.rectBounds;
+        int dimX = (int) (rectBounds.width() / pixelSize);
+        int dimY = (int) (rectBounds.height() / pixelSize);
+        TriangleMesh mesh = new TriangleMesh();
+        new PhongTessellation(eroderResults, alpha).forEachTriangle(mesh);
+        // quantized over the mesh's heights, which overshoot the results' when alpha is positive, leaving none clamped
+        try {
+            raster = MappedHeightRaster.create(file, dimX, dimY, tileSize, precision, rectBounds.min.x, rectBounds.min.y,
+                    pixelSize, Math.min(eroderResults.minHeight, mesh.minZ), Math.max(eroderResults.maxHeight, mesh.maxZ));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // the raster's file stays open only if the raster is complete
+        try {
+            // tile membership in compressed sparse row form, as in InterpolatorCPURasterizerRandomAccess
+            int tilesX = raster.tilesX(), tilesY = raster.tilesY();
+            int[] tileStart = new int[tilesX * tilesY + 1];
+            for (int t = 0; t < mesh.count; t++)
+                forEachTile(mesh, t, tile -> tileStart[tile + 1]++);
+            for (int tile = 0; tile < tilesX * tilesY; tile++)
+                tileStart[tile + 1] += tileStart[tile];
+            int[] tileTriangles = new int[tileStart[tilesX * tilesY]];
+            int[] fill = Arrays.copyOf(tileStart, tilesX * tilesY);
+            for (int t = 0; t < mesh.count; t++) {
+                final int triangle = t;
+                forEachTile(mesh, t, tile -> tileTriangles[fill[tile]++] = triangle);
+            }
+
+            for (int tileY = 0; tileY < tilesY; tileY++) {
+                final int row = tileY;
+                IntStream.range(0, tilesX).parallel().forEach(tileX -> {
+                    raster.clearTile(tileX, row);
+                    int tile = row * tilesX + tileX;
+                    int x0 = tileX * tileSize, y0 = row * tileSize;
+                    int x1 = Math.min(dimX, x0 + tileSize) - 1, y1 = Math.min(dimY, y0 + tileSize) - 1;
+                    for (int i = tileStart[tile]; i < tileStart[tile + 1]; i++) {
+                        int t = tileTriangles[i];
+                        InterpolatorCPURasterizer.rasterize(raster, raster.minX, raster.minY, pixelSize,
+                                new Vec3(mesh.x1[t], mesh.y1[t], mesh.z1[t]),
+                                new Vec3(mesh.x2[t], mesh.y2[t], mesh.z2[t]),
+                                new Vec3(mesh.x3[t], mesh.y3[t], mesh.z3[t]),
+                                x0, y0, x1, y1);
+                    }
+                });
+                raster.force(tileY);
+            }
+        } catch (RuntimeException | Error e) {
+            try {
+                raster.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        endConstruction(event, getClass(), "mappedRaster", eroderResults.heights.length, start);
+    }
+
+    private InterpolatorCPURasterizerMapped(MappedHeightRaster raster) {
+        this.raster = raster;
+    }
+
+    /**
+     * Reads back a raster file written by this class
+     *
+     * @param file The raster file
+     * @return An {@link Interpolator} reading from the mapped file
+     * @throws IOException If the file cannot be read or is not a raster file
+     */
+    public static InterpolatorCPURasterizerMapped open(Path file) throws IOException {
+        return new InterpolatorCPURasterizerMapped(MappedHeightRaster.open(file));
+    }
+
+    @Override
+    public double interpolate(PointD point) {
+        return interpolate(point.x, point.y);
+    }
+
+    @Override
+    public double interpolate(double x, double y) {
+        int ix = (int) Math.floor((x - raster.minX) / raster.pixelSize);
+        int iy = (int) Math.floor((y - raster.minY) / raster.pixelSize);
+        if (!raster.isWritten(ix, iy))
+            throw new IndexOutOfBoundsException(new PointD(x, y) + " does not lie within the convex hull");
+        return raster.get(ix, iy);
+    }
+
+    /**
+     * Interpolates the height of a point along with its gradient, by differences between the neighboring pixels
+     *
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of that point
+     * @return The interpolated height and gradient at the point
+     */
+    @Override
+    public HeightGradient interpolateGradient(double x, double y) {
+        double height = interpolate(x, y);
+        int ix = (int) Math.floor((x - raster.minX) / raster.pixelSize);
+        int iy = (int) Math.floor((y - raster.minY) / raster.pixelSize);
+        return new HeightGradient(height, raster.difference(ix, iy, 1, 0, raster.pixelSize),
+                raster.difference(ix, iy, 0, 1, raster.pixelSize));
+    }
+
+    /**
+     * Closes the raster file
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        raster.close();
+    }
+
+    private void forEachTile(TriangleMesh mesh, int t, IntConsumer consumer) {
+        int tileSize = raster.tileSize;
+        double pixelSize = raster.pixelSize;
+        int x0 = Math.max(0, (int) Math.floor((mesh.minX(t) - raster.minX) / pixelSize));
+        int y0 = Math.max(0, (int) Math.floor((mesh.minY(t) - raster.minY) / pixelSize));
+        int x1 = Math.min(raster.width - 1, (int) Math.floor((mesh.maxX(t) - raster.minX) / pixelSize));
+        int y1 = Math.min(raster.height - 1, (int) Math.floor((mesh.maxY(t) - raster.minY) / pixelSize));
+        for (int tileY = y0 / tileSize; tileY <= y1 / tileSize && y0 <= y1; tileY++)
+            for (int tileX = x0 / tileSize; tileX <= x1 / tileSize && x0 <= x1; tileX++)
+                consumer.accept(tileY * raster.tilesX() + tileX);
+    }
+}
@@ -0,0 +1,165 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.diagnostics.InterpolatorEvent;
+import com.github.keyboardcat1.erosio.diagnostics.Metrics;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Gaussian smoothing on a raster: the nodes are splatted onto pixels, then blurred by a separable gaussian whose
+ * standard deviation is the average edge length divided by a coefficient, the heights being the blurred heights over
+ * the blurred weights. <br/>
+ * This is a smoothing of its own rather than a raster of {@link InterpolatorGaussianKernel}, whose weights scale the
+ * variance with the distance and thus fall off as the inverse square of the distance, which no separable blur
+ * reproduces.
+ */
+public class InterpolatorGaussianBlur extends Interpolator {
+    private final double[] grid;
+    private final int dimX;
+    private final int dimY;
+    private final double minX;
+    private final double minY;
+
+    /**
+     * A pixel's dimension in erosion basis
+     */
+    public final double pixelSize;
+    /**
+     * The average edge length divided by the standard deviation of the blur
+     */
+    public final double stddevInverseCoefficient;
+    /**
+     * The relative weight below which the blur kernel is cut off (small)
+     */
+    public final double normalizedError;
+
+    /**
+     * Gaussian smoothing on a raster
+     *
+     * @param eroderResults            The {@link EroderResults} to interpolate
+     * @param pixelSize                A pixel's dimension in erosion basis
+     * @param stddevInverseCoefficient The average edge length divided by the standard deviation of the blur
+     * @param normalizedError          The relative weight below which the blur kernel is cut off (small)
+     */
+    public InterpolatorGaussianBlur(EroderResults eroderResults, double pixelSize, double stddevInverseCoefficient, double normalizedError) {
+        super(eroderResults);
+        InterpolatorEvent event = beginConstruction();
+        long start = Metrics.start();
+        this.pixelSize = pixelSize;
+        this.stddevInverseCoefficient = stddevInverseCoefficient;
+        this.normalizedError = normalizedError;
+
+        RectD rectBounds = eroderResults.eroderGeometry.rectBounds;
+        minX = rectBounds.min.x;
+        minY = rectBounds.min.y;
+        dimX = Math.max(1, (int) Math.ceil(rectBounds.width() / pixelSize));
+        dimY = Math.max(1, (int) Math.ceil(rectBounds.height() / pixelSize));
+
+        double stddev = InterpolatorGaussianKernel.averageEdgeLength(eroderResults.eroderGeometry)
+                / stddevInverseCoefficient / pixelSize;
+        int radius = (int) Math.ceil(stddev * Math.sqrt(2 * Math.abs(Math.log(normalizedError))));
+        double[] kernel = new double[2 * radius + 1];
+        for (int k = -radius; k <= radius; k++)
+            kernel[k + radius] = Math.exp(-k * k / (2 * stddev * stddev));
+
+        double[] numerator = new double[dimX * dimY];
+        double[] denominator = new double[dimX * dimY];
+        for (Map.Entry<PointD, Double> entry : eroderResults.heightMap.entrySet())
+            splat(entry.getKey(), entry.getValue(), numerator, denominator);
+
+        numerator = blurColumns(blurRows(numerator, kernel, radius), kernel, radius);
+        denominator = blurColumns(blurRows(denominator, kernel, radius), kernel, radius);
+
+        grid = numerator;
+        final double[] weights = denominator;
+        IntStream.range(0, dimY).parallel().forEach(y -> {
+            for (int i = y * dimX; i < (y + 1) * dimX; i++)
+                grid[i] = weights[i] > 0 ? grid[i] / weights[i] : Double.NaN;
+        });
+        endConstruction(event, getClass(), "blurredRaster", eroderResults.heights.length, start);
+    }
+
+    @Override
+    public double interpolate(PointD point) {
+        int x = (int) Math.floor((point.x - minX) / pixelSize);
+        int y = (int) Math.floor((point.y - minY) / pixelSize);
+        if (x < 0 || x >= dimX || y < 0 || y >= dimY || Double.isNaN(grid[y * dimX + x]))
+            throw new IndexOutOfBoundsException(point + " does not lie within the rasterized area");
+        return grid[y * dimX + x];
+    }
+
+    @Override
+    public HeightGradient interpolateGradient(double x, double y) {
+        double height = interpolate(x, y);
+        int ix = (int) Math.floor((x - minX) / pixelSize);
+        int iy = (int) Math.floor((y - minY) / pixelSize);
+        return new HeightGradient(height, difference(ix, iy, 1, 0), difference(ix, iy, 0, 1));
+    }
+
+    // central difference between the neighboring pixels, one-sided at the border of the rasterized area
+    private double difference(int x, int y, int dx, int dy) {
+        boolean forward = isWritten(x + dx, y + dy);
+        boolean backward = isWritten(x - dx, y - dy);
+        double high = forward ? grid[(y + dy) * dimX + x + dx] : grid[y * dimX + x];
+        double low = backward ? grid[(y - dy) * dimX + x - dx] : grid[y * dimX + x];
+        int span = (forward ? 1 : 0) + (backward ? 1 : 0);
+        return span == 0 ? 0 : (high - low) / (span * pixelSize);
+    }
+
+    private boolean isWritten(int x, int y) {
+        return x >= 0 && x < dimX && y >= 0 && y < dimY && !Double.isNaN(grid[y * dimX + x]);
+    }
+
+    // bilinear splat onto the four pixel centers surrounding the node
+    private void splat(PointD node, double height, double[] numerator, double[] denominator) {
+        double fx = (node.x - minX) / pixelSize - 0.5;
+        double fy = (node.y - minY) / pixelSize - 0.5;
+        int x0 = (int) Math.floor(fx);
+        int y0 = (int) Math.floor(fy);
+        double tx = fx - x0;
+        double ty = fy - y0;
+        for (int dy = 0; dy <= 1; dy++) for (int dx = 0; dx <= 1; dx++) {
+            int x = x0 + dx;
+            int y = y0 + dy;
+            if (x < 0 || x >= dimX || y < 0 || y >= dimY) continue;
+            double weight = (dx == 0 ? 1 - tx : tx) * (dy == 0 ? 1 - ty : ty);
+            numerator[y * dimX + x] += weight * height;
+            denominator[y * dimX + x] += weight;
+        }
+    }
+
+    // horizontal pass, kernel taps outermost so that the inner loop runs over contiguous memory
+    private double[] blurRows(double[] src, double[] kernel, int radius) {
+        double[] dst = new double[src.length];
+        IntStream.range(0, dimY).parallel().forEach(y -> {
+            int row = y * dimX;
+            for (int k = -radius; k <= radius; k++) {
+                double w = kernel[k + radius];
+                int from = Math.max(0, -k);
+                int to = Math.min(dimX, dimX - k);
+                for (int x = from; x < to; x++)
+                    dst[row + x] += w * src[row + x + k];
+            }
+        });
+        return dst;
+    }
+
+    // vertical pass, accumulating whole source rows into each destination row
+    private double[] blurColumns(double[] src, double[] kernel, int radius) {
+        double[] dst = new double[src.length];
+        IntStream.range(0, dimY).parallel().forEach(y -> {
+            int row = y * dimX;
+            for (int k = Math.max(-radius, -y); k <= Math.min(radius, dimY - 1 - y); k++) {
+                double w = kernel[k + radius];
+                int srcRow = (y + k) * dimX;
+                for (int x = 0; x < dimX; x++)
+                    dst[row + x] += w * src[srcRow + x];
+            }
+        });
+        return dst;
+    }
+}
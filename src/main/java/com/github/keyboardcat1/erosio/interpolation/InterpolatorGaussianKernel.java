@@ -1,5 +1,6 @@
 package com.github.keyboardcat1.erosio.interpolation;
 
+import com.github.keyboardcat1.erosio.EroderGeometry;
 import com.github.keyboardcat1.erosio.EroderResults;
 import org.kynosarges.tektosyne.geometry.PointD;
 
@@ -35,17 +36,8 @@ public class InterpolatorGaussianKernel extends SpontaneousInterpolator {
         this.stddevInverseCoefficient = stddevInverseCoefficient;
         this.normalizedError = normalizedError;
 
-        double total = 0;
-        int N = 0;
-        for (Map.Entry<PointD, Set<PointD>> entry : eroderResults.eroderGeometry.graph.entrySet()) {
-            for (PointD neighbor : entry.getValue()) {
-                N += 1;
-                total += entry.getKey().subtract(neighbor).length();
-            }
-        }
-        double average = total/N;
-
-        this.d_epsilon = average / stddevInverseCoefficient * Math.sqrt(2*Math.abs(Math.log(normalizedError)));
+        this.d_epsilon = averageEdgeLength(eroderResults.eroderGeometry) / stddevInverseCoefficient
+                * Math.sqrt(2*Math.abs(Math.log(normalizedError)));
     }
 
     @Override
@@ -62,6 +54,45 @@ public class InterpolatorGaussianKernel extends SpontaneousInterpolator {
         return numerator / denominator;
     }
 
+    @Override
+    public HeightGradient interpolateGradient(double x, double y) {
+        PointD point = new PointD(x, y);
+        double numerator = 0.0D, denominator = 0.0D;
+        double numeratorX = 0.0D, denominatorX = 0.0D;
+        double numeratorY = 0.0D, denominatorY = 0.0D;
+        for (PointD node : getRange(point, d_epsilon)) {
+            double height = eroderResults.heightMap.get(node);
+            double distanceSquared = point.subtract(node).lengthSquared();
+            double distance = Math.sqrt(distanceSquared);
+            double weight = normalDist(distance, 0, Math.pow((distance/stddevInverseCoefficient), 2));
+            // the variance scales with the squared distance, so the weight falls off as distance^-2
+            double weightX = -2 * weight * (x - node.x) / distanceSquared;
+            double weightY = -2 * weight * (y - node.y) / distanceSquared;
+            numerator += height * weight;
+            denominator += weight;
+            numeratorX += height * weightX;
+            denominatorX += weightX;
+            numeratorY += height * weightY;
+            denominatorY += weightY;
+        }
+        double height = numerator / denominator;
+        return new HeightGradient(height,
+                (numeratorX - height * denominatorX) / denominator,
+                (numeratorY - height * denominatorY) / denominator);
+    }
+
+    static double averageEdgeLength(EroderGeometry eroderGeometry) {
+        double total = 0;
+        int N = 0;
+        for (Map.Entry<PointD, Set<PointD>> entry : eroderGeometry.graph.entrySet()) {
+            for (PointD neighbor : entry.getValue()) {
+                N += 1;
+                total += entry.getKey().subtract(neighbor).length();
+            }
+        }
+        return total/N;
+    }
+
     private double normalDist(double x, double m, double v) {
         return (1/(v*SQRT2PI)) * Math.exp(-Math.pow(x-m,2)/(2*v));
     }
@@ -41,4 +41,30 @@ public class InterpolatorIDW extends SpontaneousInterpolator {
         }
         return numerator / denominator;
     }
+
+    @Override
+    public HeightGradient interpolateGradient(double x, double y) {
+        PointD point = new PointD(x, y);
+        double numerator = 0.0D, denominator = 0.0D;
+        double numeratorX = 0.0D, denominatorX = 0.0D;
+        double numeratorY = 0.0D, denominatorY = 0.0D;
+        for (PointD node : getRange(point, radius)) {
+            double height = eroderResults.heightMap.get(node);
+            double distanceSquared = point.subtract(node).lengthSquared();
+            double weight = Math.pow(distanceSquared, exponent * -0.5D);
+            // d(weight)/dx = -exponent * weight * (x - node.x) / distance^2
+            double weightX = -exponent * weight * (x - node.x) / distanceSquared;
+            double weightY = -exponent * weight * (y - node.y) / distanceSquared;
+            numerator += height * weight;
+            denominator += weight;
+            numeratorX += height * weightX;
+            denominatorX += weightX;
+            numeratorY += height * weightY;
+            denominatorY += weightY;
+        }
+        double height = numerator / denominator;
+        return new HeightGradient(height,
+                (numeratorX - height * denominatorX) / denominator,
+                (numeratorY - height * denominatorY) / denominator);
+    }
 }
@@ -7,6 +7,10 @@ import org.kynosarges.tektosyne.geometry.PointD;
  * Interpolation by nearest neighbor
  */
 public class InterpolatorNN extends SpontaneousInterpolator {
+    /**
+     * Whether queries walk the geometry graph from the previous result on the same thread (fast for scan-order queries)
+     */
+    public final boolean coherent;
 
     /**
      * Interpolation by nearest neighbor
@@ -14,13 +18,38 @@ public class InterpolatorNN extends SpontaneousInterpolator {
      * @param eroderResults The {@link EroderResults} to interpolate
      */
     public InterpolatorNN(EroderResults eroderResults) {
+        this(eroderResults, false);
+    }
+
+    /**
+     * Interpolation by nearest neighbor
+     *
+     * @param eroderResults The {@link EroderResults} to interpolate
+     * @param coherent      Whether queries walk the geometry graph from the previous result on the same thread (fast
+     *                      for scan-order queries)
+     */
+    public InterpolatorNN(EroderResults eroderResults, boolean coherent) {
         super(eroderResults);
+        this.coherent = coherent;
+    }
+
+    @Override
+    public double interpolate(double x, double y) {
+        if (!coherent) return super.interpolate(x, y);
+        double result = heightOf(walkToClosest(x, y));
+        return Double.isNaN(result) ? 0 : result;
     }
 
     @Override
     public double interpolate(PointD point) {
+        if (coherent) return interpolate(point.x, point.y);
         PointD closest = getClosest(point);
         var result = eroderResults.heightMap.get(closest);
         return Double.isNaN(result) ? 0 : result;
     }
+
+    @Override
+    public HeightGradient interpolateGradient(double x, double y) {
+        return new HeightGradient(interpolate(x, y), 0, 0);
+    }
 }
@@ -0,0 +1,368 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.diagnostics.Metrics;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A caching {@link Interpolator} that samples another interpolator into fixed-size tiles on demand and keeps recently
+ * used tiles in memory. Hits only mark their tile as referenced, while every new tile takes a slot in a ring swept by
+ * a clock hand, which evicts the first tile not referenced since its last pass.
+ */
+public class InterpolatorTileCache extends Interpolator {
+    /**
+     * The cached {@link Interpolator}
+     */
+    public final Interpolator interpolator;
+    /**
+     * A pixel's dimension in erosion basis
+     */
+    public final double pixelSize;
+    /**
+     * The number of pixels along each side of a tile
+     */
+    public final int tileSize;
+    /**
+     * The maximum number of tiles kept in memory, prefetched tiles included
+     */
+    public final int maxTiles;
+    /**
+     * The number of neighboring tiles on each side prefetched whenever a tile is missed
+     */
+    public final int prefetchRadius;
+
+    private final Executor executor;
+    private final Map<Long, Tile> tiles = new ConcurrentHashMap<>();
+    private final Object evictionLock = new Object();
+    // the ring of slots swept by the clock hand, guarded by the eviction lock and grown up to maxTiles
+    private long[] slotKeys = new long[0];
+    private Tile[] slotTiles = new Tile[0];
+    private int used, hand;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    /**
+     * A caching {@link Interpolator} without prefetching
+     *
+     * @param interpolator The {@link Interpolator} to cache
+     * @param pixelSize    A pixel's dimension in erosion basis
+     * @param tileSize     The number of pixels along each side of a tile
+     * @param maxTiles     The maximum number of tiles kept in memory
+     */
+    public InterpolatorTileCache(Interpolator interpolator, double pixelSize, int tileSize, int maxTiles) {
+        this(interpolator, pixelSize, tileSize, maxTiles, 0, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * A caching {@link Interpolator}
+     *
+     * @param interpolator   The {@link Interpolator} to cache
+     * @param pixelSize      A pixel's dimension in erosion basis
+     * @param tileSize       The number of pixels along each side of a tile
+     * @param maxTiles       The maximum number of tiles kept in memory
+     * @param prefetchRadius The number of neighboring tiles on each side prefetched whenever a tile is missed, nearest
+     *                       first and at most one less than maxTiles
+     * @param executor       The {@link Executor} loading prefetched tiles
+     */
+    public InterpolatorTileCache(Interpolator interpolator, double pixelSize, int tileSize, int maxTiles,
+                                 int prefetchRadius, Executor executor) {
+        if (tileSize <= 0 || maxTiles <= 0)
+            throw new IllegalArgumentException("tileSize and maxTiles must be positive");
+        this.interpolator = interpolator;
+        this.pixelSize = pixelSize;
+        this.tileSize = tileSize;
+        this.maxTiles = maxTiles;
+        this.prefetchRadius = prefetchRadius;
+        this.executor = executor;
+    }
+
+    /**
+     * Interpolates the height of a point from its tile, at the center of the pixel it lies in
+     *
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of that point
+     * @return The interpolated height at the point, NaN if the cached interpolator could not interpolate it
+     */
+    @Override
+    public double interpolate(double x, double y) {
+        long px = (long) Math.floor(x / pixelSize);
+        long py = (long) Math.floor(y / pixelSize);
+        int tileX = (int) Math.floorDiv(px, tileSize);
+        int tileY = (int) Math.floorDiv(py, tileSize);
+        double[] heights = getTile(tileX, tileY);
+        return heights[(int) Math.floorMod(py, tileSize) * tileSize + (int) Math.floorMod(px, tileSize)];
+    }
+
+    @Override
+    public double interpolate(PointD point) {
+        return interpolate(point.x, point.y);
+    }
+
+    /**
+     * Interpolates the height of a point along with its gradient, by differences between the neighboring pixels
+     *
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of that point
+     * @return The interpolated height and gradient at the point
+     */
+    @Override
+    public HeightGradient interpolateGradient(double x, double y) {
+        double height = interpolate(x, y);
+        return new HeightGradient(height, difference(x, y, height, pixelSize, 0), difference(x, y, height, 0, pixelSize));
+    }
+
+    // central difference between the neighboring pixels, one-sided where a neighbor has no height
+    private double difference(double x, double y, double height, double dx, double dy) {
+        double forward = interpolate(x + dx, y + dy);
+        double backward = interpolate(x - dx, y - dy);
+        boolean hasForward = !Double.isNaN(forward), hasBackward = !Double.isNaN(backward);
+        double high = hasForward ? forward : height;
+        double low = hasBackward ? backward : height;
+        int span = (hasForward ? 1 : 0) + (hasBackward ? 1 : 0);
+        return span == 0 ? 0 : (high - low) / (span * pixelSize);
+    }
+
+    /**
+     * Asynchronously loads the tiles around a point, nearest first and at most maxTiles of them
+     *
+     * @param x      The X coordinate of the point
+     * @param y      The Y coordinate of the point
+     * @param radius The number of tiles on each side of the point's tile to load
+     */
+    public void prefetch(double x, double y, int radius) {
+        int tileX = (int) Math.floorDiv((long) Math.floor(x / pixelSize), tileSize);
+        int tileY = (int) Math.floorDiv((long) Math.floor(y / pixelSize), tileSize);
+        prefetchAround(tileX, tileY, radius, maxTiles);
+    }
+
+    /**
+     * Drops every cached tile
+     */
+    public void invalidateAll() {
+        synchronized (evictionLock) {
+            tiles.clear();
+            Arrays.fill(slotTiles, null);
+            used = 0;
+            hand = 0;
+        }
+    }
+
+    /**
+     * Drops the cached tiles overlapping a rectangle, such as the {@link com.github.keyboardcat1.erosio.EroderEdit}
+     * bounds of a local re-erosion, when the cached interpolator's heights changed over it
+     *
+     * @param bounds The rectangle whose tiles to drop
+     */
+    public void invalidate(RectD bounds) {
+        synchronized (evictionLock) {
+            for (int slot = 0; slot < used; slot++)
+                if (overlaps(slotKeys[slot], bounds)) tiles.remove(slotKeys[slot], slotTiles[slot]);
+        }
+    }
+
+    /**
+     * A cache over another interpolator with the same settings, such as one over the results of a local re-erosion,
+     * starting with the tiles of this cache that were loaded and do not overlap the area where heights changed
+     *
+     * @param interpolator The {@link Interpolator} to cache
+     * @param dirty        The rectangle the heights of the two interpolators may differ over, such as
+     *                     {@link com.github.keyboardcat1.erosio.EroderEdit#dirtyBounds(double)}
+     * @return The new cache, sharing the tiles it starts with
+     */
+    public InterpolatorTileCache withInterpolator(Interpolator interpolator, RectD dirty) {
+        InterpolatorTileCache out = new InterpolatorTileCache(interpolator, pixelSize, tileSize, maxTiles,
+                prefetchRadius, executor);
+        synchronized (evictionLock) {
+            for (int slot = 0; slot < used; slot++) {
+                long key = slotKeys[slot];
+                Tile tile = slotTiles[slot];
+                if (tiles.get(key) != tile || overlaps(key, dirty)) continue;
+                if (!tile.heights.isDone() || tile.heights.isCompletedExceptionally()) continue;
+                // tiles are never modified once loaded, so both caches can share them
+                Tile copy = out.insert(key, tile.referenced);
+                if (copy != null) copy.heights.complete(tile.heights.join());
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The number of queries answered from a loaded or loading tile
+     *
+     * @return The number of cache hits
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of queries that had to load their tile
+     *
+     * @return The number of cache misses
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * The ratio of hits over all queries
+     *
+     * @return The hit rate, 0 if there were no queries
+     */
+    public double hitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * The number of tiles loaded, including prefetched tiles
+     *
+     * @return The number of tile loads
+     */
+    public long loadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * The average time taken to load a tile
+     *
+     * @return The average load latency in milliseconds, 0 if no tile was loaded
+     */
+    public double averageLoadMillis() {
+        long loadCount = loads.sum();
+        return loadCount == 0 ? 0 : loadNanos.sum() / 1E6 / loadCount;
+    }
+
+    /**
+     * The number of tiles currently in memory
+     *
+     * @return The number of cached tiles
+     */
+    public int size() {
+        return tiles.size();
+    }
+
+    private double[] getTile(int tileX, int tileY) {
+        long key = key(tileX, tileY);
+        Tile tile;
+        while ((tile = tiles.get(key)) == null) {
+            Tile created = insert(key, true);
+            if (created == null) continue;
+            misses.increment();
+            if (Metrics.ENABLED) Metrics.counter("tileCache.misses").increment();
+            // the missed tile keeps its slot against its own prefetches
+            prefetchAround(tileX, tileY, prefetchRadius, maxTiles - 1);
+            return load(key, tileX, tileY, created);
+        }
+        hits.increment();
+        if (Metrics.ENABLED) Metrics.counter("tileCache.hits").increment();
+        if (!tile.referenced) tile.referenced = true;
+        try {
+            return tile.heights.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException r ? r : e;
+        }
+    }
+
+    // loads up to limit missing tiles, ring by ring outwards
+    private void prefetchAround(int tileX, int tileY, int radius, int limit) {
+        for (int ring = 0; ring <= radius; ring++)
+            for (int dy = -ring; dy <= ring; dy++)
+                for (int dx = -ring; dx <= ring; dx++) {
+                    if (limit <= 0) return;
+                    if (Math.max(Math.abs(dx), Math.abs(dy)) != ring) continue;
+                    long key = key(tileX + dx, tileY + dy);
+                    if (tiles.containsKey(key)) continue;
+                    Tile created = insert(key, false);
+                    if (created == null) continue;
+                    limit--;
+                    int x = tileX + dx, y = tileY + dy;
+                    executor.execute(() -> load(key, x, y, created));
+                }
+    }
+
+    // adds a tile unless one is already cached, evicting another once the ring is full
+    private Tile insert(long key, boolean referenced) {
+        synchronized (evictionLock) {
+            if (tiles.containsKey(key)) return null;
+            int slot;
+            if (used < maxTiles) {
+                if (used == slotKeys.length) {
+                    int length = (int) Math.min(maxTiles, Math.max(16, 2L * used));
+                    slotKeys = Arrays.copyOf(slotKeys, length);
+                    slotTiles = Arrays.copyOf(slotTiles, length);
+                }
+                slot = used++;
+            } else slot = victim();
+            Tile created = new Tile();
+            created.referenced = referenced;
+            slotKeys[slot] = key;
+            slotTiles[slot] = created;
+            tiles.put(key, created);
+            return created;
+        }
+    }
+
+    // the clock hand clears the reference of every tile it passes until it finds one not referenced, at most one turn
+    private int victim() {
+        while (true) {
+            int slot = hand;
+            hand = hand + 1 == maxTiles ? 0 : hand + 1;
+            Tile tile = slotTiles[slot];
+            // a tile whose load failed has already left the map
+            if (tile.referenced && tiles.get(slotKeys[slot]) == tile) {
+                tile.referenced = false;
+                continue;
+            }
+            tiles.remove(slotKeys[slot], tile);
+            return slot;
+        }
+    }
+
+    private double[] load(long key, int tileX, int tileY, Tile tile) {
+        long start = System.nanoTime();
+        try {
+            double[] heights = interpolator.interpolate((tileX * (long) tileSize + 0.5) * pixelSize,
+                    (tileY * (long) tileSize + 0.5) * pixelSize, pixelSize, tileSize, tileSize);
+            loadNanos.add(System.nanoTime() - start);
+            loads.increment();
+            tile.heights.complete(heights);
+            return heights;
+        } catch (RuntimeException e) {
+            tiles.remove(key, tile);
+            tile.heights.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // whether the area covered by a tile overlaps a rectangle
+    private boolean overlaps(long key, RectD bounds) {
+        int tileX = (int) (key >> 32), tileY = (int) key;
+        double tileExtent = tileSize * pixelSize;
+        return tileX * tileExtent <= bounds.max.x && (tileX + 1) * tileExtent >= bounds.min.x
+                && tileY * tileExtent <= bounds.max.y && (tileY + 1) * tileExtent >= bounds.min.y;
+    }
+
+    private static long key(int tileX, int tileY) {
+        return ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+    }
+
+    private static class Tile {
+        final CompletableFuture<double[]> heights = new CompletableFuture<>();
+        // whether the tile was hit since the clock hand last passed it
+        volatile boolean referenced;
+    }
+}
@@ -0,0 +1,216 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link HeightRaster} stored in a memory-mapped file, split into square tiles so that rasterizing or reading a
+ * region only touches the pages of the tiles it covers. <br/>
+ * The file holds a 64-byte little-endian header (magic, version, width, height, tile size, precision ordinal, then
+ * the X and Y coordinates of the raster's corner, the pixel size and the quantization range as doubles), followed by
+ * the tiles in row-major order, each holding its pixels in row-major order.
+ */
+public class MappedHeightRaster extends HeightRaster implements Closeable {
+    private static final int MAGIC = 0x52535245; // "ERSR"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    /**
+     * The number of pixels along each side of a tile
+     */
+    public final int tileSize;
+    /**
+     * The X coordinate of the raster's corner in erosion basis
+     */
+    public final double minX;
+    /**
+     * The Y coordinate of the raster's corner in erosion basis
+     */
+    public final double minY;
+    /**
+     * A pixel's dimension in erosion basis
+     */
+    public final double pixelSize;
+    /**
+     * The lowest height representable when quantized
+     */
+    public final double minHeight;
+    /**
+     * The highest height representable when quantized
+     */
+    public final double maxHeight;
+
+    private final int tilesX;
+    private final int tilesY;
+    private final double step;
+    private final FileChannel channel;
+    // one mapping per row of tiles, keeping every mapping under the 2GB limit
+    private final MappedByteBuffer[] bands;
+
+    private MappedHeightRaster(FileChannel channel, boolean writable, int width, int height, int tileSize, Precision precision,
+                               double minX, double minY, double pixelSize, double minHeight, double maxHeight) throws IOException {
+        super(width, height, precision);
+        this.channel = channel;
+        this.tileSize = tileSize;
+        this.minX = minX;
+        this.minY = minY;
+        this.pixelSize = pixelSize;
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+        this.step = maxHeight > minHeight ? (maxHeight - minHeight) / QUANTIZED_LEVELS : 1;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+
+        long bandBytes = (long) tilesX * tileSize * tileSize * precision.bytes;
+        if (bandBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A row of " + tilesX + " tiles of " + tileSize + " pixels exceeds 2GB");
+        bands = new MappedByteBuffer[tilesY];
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        for (int band = 0; band < tilesY; band++) {
+            bands[band] = channel.map(mode, HEADER_BYTES + band * bandBytes, bandBytes);
+            bands[band].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    static MappedHeightRaster create(Path file, int width, int height, int tileSize, Precision precision,
+                                     double minX, double minY, double pixelSize, double minHeight, double maxHeight) throws IOException {
+        if (tileSize <= 0)
+            throw new IllegalArgumentException("The tile size " + tileSize + " is not positive");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(tileSize).putInt(precision.ordinal())
+                    .putDouble(minX).putDouble(minY).putDouble(pixelSize).putDouble(minHeight).putDouble(maxHeight);
+            header.rewind();
+            channel.write(header, 0);
+            return new MappedHeightRaster(channel, true, width, height, tileSize, precision,
+                    minX, minY, pixelSize, minHeight, maxHeight);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps a raster file for reading
+     *
+     * @param file The file written by {@link InterpolatorCPURasterizerMapped}
+     * @return The mapped raster
+     * @throws IOException If the file cannot be read or is not a raster file
+     */
+    public static MappedHeightRaster open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC)
+                throw new IOException(file + " is not a raster file");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " has unsupported raster version " + version);
+            int width = header.getInt();
+            int height = header.getInt();
+            int tileSize = header.getInt();
+            if (tileSize <= 0)
+                throw new IOException(file + " has an invalid tile size " + tileSize);
+            Precision precision = Precision.values()[header.getInt()];
+            return new MappedHeightRaster(channel, false, width, height, tileSize, precision, header.getDouble(),
+                    header.getDouble(), header.getDouble(), header.getDouble(), header.getDouble());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The number of tiles along the X axis
+     *
+     * @return The number of tile columns
+     */
+    public int tilesX() {
+        return tilesX;
+    }
+
+    /**
+     * The number of tiles along the Y axis
+     *
+     * @return The number of tile rows
+     */
+    public int tilesY() {
+        return tilesY;
+    }
+
+    @Override
+    public double get(int x, int y) {
+        MappedByteBuffer band = bands[y / tileSize];
+        int offset = offset(x, y);
+        return switch (precision) {
+            case DOUBLE -> band.getDouble(offset);
+            case FLOAT -> band.getFloat(offset);
+            case QUANTIZED_16 -> {
+                short code = band.getShort(offset);
+                yield code == QUANTIZED_UNWRITTEN ? Double.NaN : minHeight + (code & 0xFFFF) * step;
+            }
+        };
+    }
+
+    @Override
+    public void set(int x, int y, double value) {
+        MappedByteBuffer band = bands[y / tileSize];
+        int offset = offset(x, y);
+        switch (precision) {
+            case DOUBLE -> band.putDouble(offset, value);
+            case FLOAT -> band.putFloat(offset, (float) value);
+            case QUANTIZED_16 -> band.putShort(offset, Double.isNaN(value) ? QUANTIZED_UNWRITTEN :
+                    (short) Math.max(0, Math.min(QUANTIZED_LEVELS, Math.round((value - minHeight) / step))));
+        }
+    }
+
+    @Override
+    public double maxError() {
+        return switch (precision) {
+            case DOUBLE -> 0;
+            case FLOAT -> Math.ulp((float) Math.max(Math.abs(minHeight), Math.abs(maxHeight))) / 2;
+            case QUANTIZED_16 -> step / 2;
+        };
+    }
+
+    /**
+     * Marks every pixel of a tile as not written
+     */
+    void clearTile(int tileX, int tileY) {
+        for (int y = tileY * tileSize; y < Math.min(height, (tileY + 1) * tileSize); y++)
+            for (int x = tileX * tileSize; x < Math.min(width, (tileX + 1) * tileSize); x++)
+                set(x, y, Double.NaN);
+    }
+
+    /**
+     * Writes the pages of a row of tiles back to the file
+     */
+    void force(int tileY) {
+        bands[tileY].force();
+    }
+
+    /**
+     * Closes the file, the mapping itself being released once this raster is garbage collected
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int offset(int x, int y) {
+        int tileX = x / tileSize;
+        return ((tileX * tileSize + y % tileSize) * tileSize + x % tileSize) * precision.bytes;
+    }
+}
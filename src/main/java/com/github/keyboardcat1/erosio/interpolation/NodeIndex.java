@@ -0,0 +1,61 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.PackedGeometry;
+import org.kynosarges.tektosyne.geometry.PointD;
+
+/**
+ * Packed node coordinates, heights and adjacency supporting greedy walks on the geometry graph, sharing the arrays of
+ * {@link PackedGeometry} and {@link EroderResults}
+ */
+class NodeIndex {
+    final PointD[] nodes;
+    final double[] xs;
+    final double[] ys;
+    final double[] heights;
+    final int[] adjacencyStart;
+    final int[] adjacency;
+    private final PackedGeometry packed;
+
+    NodeIndex(EroderResults eroderResults) {
+        packed = eroderResults.packed();
+        nodes = packed.nodes;
+        xs = packed.xs;
+        ys = packed.ys;
+        heights = eroderResults.heights;
+        adjacencyStart = packed.adjacencyStart;
+        adjacency = packed.adjacency;
+    }
+
+    int indexOf(PointD node) {
+        return packed.indexOf(node);
+    }
+
+    double distanceSquared(int node, double x, double y) {
+        double dx = xs[node] - x;
+        double dy = ys[node] - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Walks the graph from a node towards a point, always moving to the neighbor closest to the point. On a Delaunay
+     * graph, or a grid over a convex domain, the walk ends on the node closest to the point, elsewhere possibly on a
+     * node closer than all its neighbors but not the closest.
+     */
+    int walk(int start, double x, double y) {
+        int current = start;
+        double currentDistance = distanceSquared(current, x, y);
+        while (true) {
+            int next = current;
+            for (int j = adjacencyStart[current]; j < adjacencyStart[current + 1]; j++) {
+                double distance = distanceSquared(adjacency[j], x, y);
+                if (distance < currentDistance) {
+                    currentDistance = distance;
+                    next = adjacency[j];
+                }
+            }
+            if (next == current) return current;
+            current = next;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import com.github.keyboardcat1.erosio.EroderResults;
+import org.kynosarges.tektosyne.geometry.LineD;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+import org.kynosarges.tektosyne.subdivision.Subdivision;
+import org.kynosarges.tektosyne.subdivision.SubdivisionEdge;
+import org.kynosarges.tektosyne.subdivision.SubdivisionFace;
+
+import java.util.*;
+
+/**
+ * Phong tessellation of the Delaunay mesh of an {@link EroderResults}, splitting every face into six triangles
+ */
+class PhongTessellation {
+    private static final double EPSILON = 1E-12;
+
+    private final EroderResults eroderResults;
+    private final double scale;
+    private final Vec3 min;
+    private final double alpha;
+
+    PhongTessellation(EroderResults eroderResults, double alpha) {
+        this.eroderResults = eroderResults;
+        this.alpha = alpha;
+
+        RectD rectBounds = eroderResults.eroderGeometry.rectBounds;
+        scale = Math.max(Math.max(rectBounds.width(), rectBounds.height()),eroderResults.maxHeight-eroderResults.minHeight);
+        min = new Vec3(rectBounds.min.x, rectBounds.min.y, eroderResults.minHeight);
+    }
+
+    void forEachTriangle(TriangleConsumer consumer) {
+        ArrayList<LineD> eroderEdges = new ArrayList<>(eroderResults.eroderGeometry.graph.size());
+        for (Map.Entry<PointD, Set<PointD>> entry : eroderResults.eroderGeometry.graph.entrySet()) {
+            for (PointD neighbor : entry.getValue()) {
+                eroderEdges.add(new LineD(entry.getKey(), neighbor));
+            }
+        }
+        Subdivision subdivision = Subdivision.fromLines(
+                eroderEdges.toArray(LineD[]::new),
+                EPSILON
+        );
+
+        Map<PointD, Vec3> normals = new HashMap<>();
+        for (SubdivisionFace face : subdivision.faces().values()) {
+            List<SubdivisionEdge> edges = face.allCycleEdges();
+            PointD A_xy = edges.get(0).origin();
+            PointD B_xy = edges.get(1).origin();
+            PointD C_xy = edges.get(2).origin();
+            Vec3 A = new Vec3(A_xy.x, A_xy.y, eroderResults.heightMap.get(A_xy));
+            Vec3 B = new Vec3(B_xy.x, B_xy.y, eroderResults.heightMap.get(B_xy));
+            Vec3 C = new Vec3(C_xy.x, C_xy.y, eroderResults.heightMap.get(C_xy));
+            Vec3 AB = B.sub(A);
+            Vec3 AC = C.sub(A);
+            Vec3 n = AB.cross(AC).normalize();
+            normals.put(A_xy, normals.getOrDefault(A_xy, Vec3.ZERO).add(n));
+            normals.put(B_xy, normals.getOrDefault(B_xy, Vec3.ZERO).add(n));
+            normals.put(C_xy, normals.getOrDefault(C_xy, Vec3.ZERO).add(n));
+        }
+
+        Collection<SubdivisionFace> faces =  subdivision.faces().values();
+        for (SubdivisionFace face : faces) {
+            List<SubdivisionEdge> cycleEdges = face.allCycleEdges();
+
+            PointD A_xy = cycleEdges.get(0).origin();
+            PointD B_xy = cycleEdges.get(1).origin();
+            PointD C_xy = cycleEdges.get(2).origin();
+            double A_z = eroderResults.heightMap.get(A_xy);
+            double B_z = eroderResults.heightMap.get(B_xy);
+            double C_z = eroderResults.heightMap.get(C_xy);
+            Vec3 A = new Vec3(A_xy.x, A_xy.y, A_z);
+            Vec3 B = new Vec3(B_xy.x, B_xy.y, B_z);
+            Vec3 C = new Vec3(C_xy.x, C_xy.y, C_z);
+
+            Vec3 sA = toS(A);
+            Vec3 sB = toS(B);
+            Vec3 sC = toS(C);
+            Vec3 nA = normals.get(A_xy).normalize();
+            Vec3 nB = normals.get(B_xy).normalize();
+            Vec3 nC = normals.get(C_xy).normalize();
+            Vec3 sij = PI(sA, sB, nA).add(PI(sB, sA, nB));
+            Vec3 sjk = PI(sB, sC, nB).add(PI(sC, sB, nC));
+            Vec3 ski = PI(sC, sA, nC).add(PI(sA, sC, nA));
+
+            Vec3 P1 = fromS(sO(sA,sB,sC,sij,sjk,ski,.5,.5,0));
+            Vec3 P2 = fromS(sO(sA,sB,sC,sij,sjk,ski,0,.5,.5));
+            Vec3 P3 = fromS(sO(sA,sB,sC,sij,sjk,ski,.5,0,.5));
+            Vec3 P0 = fromS(sO(sA,sB,sC,sij,sjk,ski,1/3D,1/3D,1/3D));
+
+            consumer.accept(A,P1,P0);
+            consumer.accept(P1,B,P0);
+            consumer.accept(B,P2,P0);
+            consumer.accept(P2,C,P0);
+            consumer.accept(C,P3,P0);
+            consumer.accept(P3,A,P0);
+        }
+    }
+
+    private Vec3 toS(Vec3 V) {
+        return V.sub(min).scale(2/scale).sub(Vec3.ONE);
+    }
+    private Vec3 fromS(Vec3 sV) {
+        return sV.add(Vec3.ONE).scale(scale/2).add(min);
+    }
+    private Vec3 sO(Vec3 sA, Vec3 sB, Vec3 sC, Vec3 sij, Vec3 sjk, Vec3 ski, double u, double v, double w) {
+        Vec3 sP = sA.scale(u*u).add(
+                sB.scale(v*v)).add(
+                sC.scale(w*w)).add(
+                sij.scale(u*v)).add(
+                sjk.scale(v*w)).add(
+                ski.scale(w*u));
+        Vec3 sQ = sA.scale(u).add(
+                sB.scale(v)).add(
+                sC.scale(w));
+        return sP.scale(alpha).add(sQ.scale(1-alpha));
+    }
+    private Vec3 PI(Vec3 p, Vec3 q, Vec3 n_p) {
+        return q.sub(n_p.scale(q.sub(p).dot(n_p)));
+    }
+
+    @FunctionalInterface
+    interface TriangleConsumer {
+        void accept(Vec3 A, Vec3 B, Vec3 C);
+    }
+}
@@ -1,6 +1,8 @@
 package com.github.keyboardcat1.erosio.interpolation;
 
 import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.diagnostics.InterpolatorEvent;
+import com.github.keyboardcat1.erosio.diagnostics.Metrics;
 import org.kynosarges.tektosyne.QuadTree;
 import org.kynosarges.tektosyne.geometry.GeoUtils;
 import org.kynosarges.tektosyne.geometry.PointD;
@@ -8,7 +10,6 @@ import org.kynosarges.tektosyne.geometry.RectD;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -20,7 +21,12 @@ public abstract class SpontaneousInterpolator extends Interpolator{
      */
     protected final EroderResults eroderResults;
 
-    private QuadTree<Double> quadTree;
+    private static final double JUMP_DISTANCE = 8;
+
+    // built on first use, interpolators being queried from several threads at once
+    private volatile QuadTree<Double> quadTree;
+    private volatile NodeIndex nodeIndex;
+    private final ThreadLocal<int[]> cursor = ThreadLocal.withInitial(() -> new int[]{-1});
 
     /**
      * The base interpolation class
@@ -40,9 +46,17 @@ public abstract class SpontaneousInterpolator extends Interpolator{
      * @return a {@link Map} containing all {@link PointD} lying within the radius
      */
     protected final Set<PointD> getRange(PointD point, double radius) {
-        if (Objects.isNull(this.quadTree))
-            this.quadTree = new QuadTree<>(RectD.circumscribe(eroderResults.eroderGeometry.boundingPolygon), eroderResults.heightMap);
-        return quadTree.findRange(point, radius).keySet();
+        QuadTree<Double> tree = quadTree;
+        if (tree == null) synchronized (this) {
+            if (quadTree == null) {
+                InterpolatorEvent event = beginConstruction();
+                long start = Metrics.start();
+                quadTree = new QuadTree<>(RectD.circumscribe(eroderResults.eroderGeometry.boundingPolygon), eroderResults.heightMap);
+                endConstruction(event, getClass(), "quadTree", eroderResults.heights.length, start);
+            }
+            tree = quadTree;
+        }
+        return tree.findRange(point, radius).keySet();
     }
 
     /**
@@ -55,4 +69,52 @@ public abstract class SpontaneousInterpolator extends Interpolator{
         List<PointD> neighbors = getRange(point, eroderResults.eroderGeometry.minDistance*1.5).stream().toList();
         return neighbors.get(GeoUtils.nearestPoint(neighbors, point));
     }
+
+    /**
+     * Finds the closest sample point to a given point by walking the geometry graph from the previous result on the
+     * calling thread, falling back to a full search on the first query, when the point lies far from that result, or
+     * when the walk ends farther than the minimum distance from the point, as it may on a grid over a concave domain.
+     * Consecutive queries in scan order then cost a few neighbor tests each.
+     *
+     * @param x The X coordinate of the point
+     * @param y The Y coordinate of the point
+     * @return the index of the closest sample point in the packed node arrays
+     */
+    protected final int walkToClosest(double x, double y) {
+        NodeIndex index = getNodeIndex();
+        int[] last = cursor.get();
+        double minDistance = eroderResults.eroderGeometry.minDistance;
+        double jump = JUMP_DISTANCE * minDistance;
+        if (last[0] < 0 || index.distanceSquared(last[0], x, y) > jump * jump)
+            last[0] = index.indexOf(getClosest(new PointD(x, y)));
+        last[0] = index.walk(last[0], x, y);
+        // a walk stuck behind a concavity ends on a local minimum, farther than any node closest to the point
+        if (index.distanceSquared(last[0], x, y) > minDistance * minDistance)
+            last[0] = index.indexOf(getClosest(new PointD(x, y)));
+        return last[0];
+    }
+
+    /**
+     * The height of a sample point found by {@link #walkToClosest(double, double)}
+     *
+     * @param node the index of the sample point in the packed node arrays
+     * @return the height of the sample point
+     */
+    protected final double heightOf(int node) {
+        return getNodeIndex().heights[node];
+    }
+
+    private NodeIndex getNodeIndex() {
+        NodeIndex out = nodeIndex;
+        if (out == null) synchronized (this) {
+            if (nodeIndex == null) {
+                InterpolatorEvent event = beginConstruction();
+                long start = Metrics.start();
+                nodeIndex = new NodeIndex(eroderResults);
+                endConstruction(event, getClass(), "nodeIndex", eroderResults.heights.length, start);
+            }
+            out = nodeIndex;
+        }
+        return out;
+    }
 }
@@ -0,0 +1,52 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import java.util.Arrays;
+
+/**
+ * Growable structure-of-arrays storage for triangle vertices and heights
+ */
+class TriangleMesh implements PhongTessellation.TriangleConsumer {
+    double[] x1 = new double[64], y1 = new double[64], z1 = new double[64];
+    double[] x2 = new double[64], y2 = new double[64], z2 = new double[64];
+    double[] x3 = new double[64], y3 = new double[64], z3 = new double[64];
+    int count = 0;
+    // the range of every vertex height, bounding every height interpolated over the mesh
+    double minZ = Double.POSITIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+
+    @Override
+    public void accept(Vec3 v1, Vec3 v2, Vec3 v3) {
+        if (count == x1.length) resize(2 * count);
+        x1[count] = v1.x; y1[count] = v1.y; z1[count] = v1.z;
+        x2[count] = v2.x; y2[count] = v2.y; z2[count] = v2.z;
+        x3[count] = v3.x; y3[count] = v3.y; z3[count] = v3.z;
+        minZ = Math.min(minZ, Math.min(v1.z, Math.min(v2.z, v3.z)));
+        maxZ = Math.max(maxZ, Math.max(v1.z, Math.max(v2.z, v3.z)));
+        count++;
+    }
+
+    void trim() {
+        resize(count);
+    }
+
+    double minX(int t) {
+        return Math.min(x1[t], Math.min(x2[t], x3[t]));
+    }
+
+    double minY(int t) {
+        return Math.min(y1[t], Math.min(y2[t], y3[t]));
+    }
+
+    double maxX(int t) {
+        return Math.max(x1[t], Math.max(x2[t], x3[t]));
+    }
+
+    double maxY(int t) {
+        return Math.max(y1[t], Math.max(y2[t], y3[t]));
+    }
+
+    private void resize(int capacity) {
+        x1 = Arrays.copyOf(x1, capacity); y1 = Arrays.copyOf(y1, capacity); z1 = Arrays.copyOf(z1, capacity);
+        x2 = Arrays.copyOf(x2, capacity); y2 = Arrays.copyOf(y2, capacity); z2 = Arrays.copyOf(z2, capacity);
+        x3 = Arrays.copyOf(x3, capacity); y3 = Arrays.copyOf(y3, capacity); z3 = Arrays.copyOf(z3, capacity);
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+/**
+ * Whether the SIMD paths of {@link #BARYCENTRIC} are used. They live in the {@code vector} source set, the only one
+ * compiled against the incubating {@code jdk.incubator.vector} module, and are loaded reflectively so that they are
+ * only used when that module is added at runtime. They can be disabled with {@code -Derosio.vector=false}.
+ */
+final class Vectorization {
+    /**
+     * The SIMD paths, null when they are not used
+     */
+    static final Barycentric BARYCENTRIC = load();
+    static final boolean ENABLED = BARYCENTRIC != null;
+
+    private Vectorization() {
+    }
+
+    private static Barycentric load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()
+                || "false".equals(System.getProperty("erosio.vector")))
+            return null;
+        try {
+            return (Barycentric) Class.forName("com.github.keyboardcat1.erosio.interpolation.VectorBarycentric")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * SIMD edge-function and barycentric evaluation, bit-identical to the scalar code
+     */
+    interface Barycentric {
+        /**
+         * Rasterizes the pixels of a row lying strictly inside a triangle
+         *
+         * @return the first pixel X index left for the scalar code, when the span is not a multiple of the lane count
+         */
+        int rasterizeRow(HeightRaster grid, int y, int x0, int x1, double pixelSize, double minX, double py,
+                         Vec3 A, Vec3 B, Vec3 C);
+
+        /**
+         * Finds the first triangle of a cell strictly containing a point
+         *
+         * @return the index of the triangle, -1 if none contains the point
+         */
+        int firstContaining(double[] x1, double[] y1, double[] x2, double[] y2, double[] x3, double[] y3,
+                            int[] triangles, int from, int to, double x, double y);
+    }
+}
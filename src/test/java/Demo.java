@@ -26,11 +26,12 @@ public class Demo {
         EroderResults results = Eroder.erode(settings, eroderGeometry);
 
         Interpolator interpolator = new InterpolatorGaussianKernel(results, 2.5, 1E-6);
+        // Interpolator interpolator = new InterpolatorGaussianBlur(results, 1, 2.5, 1E-6);
         // Interpolator interpolator = new InterpolatorIDW(results, 2.5, 10);
         // Interpolator interpolator = new InterpolatorNN(results);
         // Interpolator interpolator = new InterpolatorKriging(results, InterpolatorKriging.Model.EXPONENTIAL, 1, 10, 10, 1);
         // Interpolator interpolator = new InterpolatorCPURasterizer(results, 1, 1); // interpolate with try-catch block! (see Demo_geo)
-        // Interpolator interpolator = new InterpolatorCPURasterizerRandomAccess(results, 1, 1, 1);
+        // Interpolator interpolator = new InterpolatorCPURasterizerRandomAccess(results, 1);
 
         BufferedImage image = new BufferedImage((int) bounds.width(), (int) bounds.height(), BufferedImage.TYPE_INT_RGB);
         for (int x = bounds.min.x; x < bounds.max.x; x++) for (int y = bounds.min.y; y < bounds.max.y; y++) {
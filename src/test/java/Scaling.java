@@ -0,0 +1,201 @@
+import com.github.keyboardcat1.erosio.Eroder;
+import com.github.keyboardcat1.erosio.EroderGeometry;
+import com.github.keyboardcat1.erosio.EroderResults;
+import com.github.keyboardcat1.erosio.EroderSettings;
+import com.github.keyboardcat1.erosio.diagnostics.Histogram;
+import com.github.keyboardcat1.erosio.diagnostics.Metrics;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryGrid;
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryNatural;
+import com.github.keyboardcat1.erosio.interpolation.Interpolator;
+import com.github.keyboardcat1.erosio.interpolation.InterpolatorCPURasterizerRandomAccess;
+import com.github.keyboardcat1.erosio.interpolation.InterpolatorNN;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Measures how geometry construction, every erosion phase and interpolation scale with the node count, over seeded
+ * domains growing by a constant factor. For every stage it records wall time, allocated bytes and peak heap, fits the
+ * exponent of time against node count, and writes the samples to scaling.csv and scaling.json. <br/>
+ * Run with {@code ./gradlew scaling}, options being passed as {@code -Pscaling="--max 1000000 --max-exponent 1.3"}:
+ * <ul>
+ *     <li>--geometry grid|natural: the geometry to erode, grid by default</li>
+ *     <li>--min, --max, --factor: the node counts, from 10k to 10M by factors of 10 by default</li>
+ *     <li>--iterations: the erosion iterations per run, 5 by default</li>
+ *     <li>--seed: the seed of the domains</li>
+ *     <li>--out: the output directory, build/reports/scaling by default</li>
+ *     <li>--max-exponent: the largest time exponent allowed for any stage</li>
+ *     <li>--max-millis, --max-heap-mb: the largest time and peak heap allowed for any stage at any size</li>
+ * </ul>
+ * The harness exits with status 1 when a budget is exceeded.
+ */
+public class Scaling {
+    private static final double SIDE = 1024;
+    private static final int QUERY_SIDE = 256;
+    private static final String[] PHASES = {"streamGraph", "lakes", "drainage", "heights"};
+
+    private record Sample(String stage, int nodes, double millis, long allocatedBytes, long peakHeapBytes) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2)
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        String kind = options.getOrDefault("geometry", "grid");
+        long min = Long.parseLong(options.getOrDefault("min", "10000"));
+        long max = Long.parseLong(options.getOrDefault("max", "10000000"));
+        double factor = Double.parseDouble(options.getOrDefault("factor", "10"));
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "5"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        Path out = Path.of(options.getOrDefault("out", "build/reports/scaling"));
+        double maxExponent = Double.parseDouble(options.getOrDefault("max-exponent", "Infinity"));
+        double maxMillis = Double.parseDouble(options.getOrDefault("max-millis", "Infinity"));
+        double maxHeapMb = Double.parseDouble(options.getOrDefault("max-heap-mb", "Infinity"));
+        if (!Metrics.ENABLED)
+            System.err.println("Run with -Derosio.metrics=true to measure the erosion phases");
+
+        // the smallest domain is run once first, so that every measured size runs compiled code
+        measureSize(new ArrayList<>(), kind, (int) min, iterations, seed);
+        List<Sample> samples = new ArrayList<>();
+        for (double target = min; target <= max * 1.0001; target *= factor)
+            measureSize(samples, kind, (int) Math.round(target), iterations, seed);
+
+        Map<String, Double> exponents = new TreeMap<>();
+        for (String stage : samples.stream().map(Sample::stage).distinct().toList())
+            exponents.put(stage, exponent(samples.stream().filter(s -> s.stage.equals(stage)).toList()));
+        write(out, samples, exponents);
+
+        List<String> failures = new ArrayList<>();
+        exponents.forEach((stage, exponent) -> {
+            if (exponent > maxExponent)
+                failures.add(String.format("%s scales as n^%.2f, above n^%.2f", stage, exponent, maxExponent));
+        });
+        for (Sample sample : samples) {
+            if (sample.millis > maxMillis)
+                failures.add(String.format("%s took %.0fms at %,d nodes", sample.stage, sample.millis, sample.nodes));
+            if (sample.peakHeapBytes > maxHeapMb * (1 << 20))
+                failures.add(String.format("%s peaked at %.0fMB of heap at %,d nodes", sample.stage,
+                        sample.peakHeapBytes / (double) (1 << 20), sample.nodes));
+        }
+        exponents.forEach((stage, exponent) -> System.out.printf("%-24s n^%.2f%n", stage, exponent));
+        if (!failures.isEmpty()) {
+            failures.forEach(System.err::println);
+            System.exit(1);
+        }
+    }
+
+    private static void measureSize(List<Sample> samples, String kind, int nodeCount, int iterations, long seed) {
+        double spacing = SIDE / Math.sqrt(nodeCount);
+        PointD[] polygon = EroderGeometry.RectDtoPolygon(new RectD(0, 0, SIDE, SIDE));
+
+        EroderGeometry geometry = measure(samples, "geometry", nodeCount, () -> kind.equals("natural") ?
+                new EroderGeometryNatural(polygon, spacing, seed) : new EroderGeometryGrid(polygon, spacing));
+        int n = geometry.graph.size();
+        measure(samples, "pack", n, geometry::packed);
+
+        EroderSettings settings = new EroderSettings(
+                (p, t) -> 1.0, p -> 50 * noise(p, seed),
+                p -> 2.0, 0.5,
+                (p, h) -> 30.0,
+                1, iterations, 0
+        );
+        Metrics.reset();
+        EroderResults results = measure(samples, "erode", n, () -> Eroder.erode(settings, geometry));
+        for (String phase : PHASES) {
+            Histogram nanos = Metrics.histogram("erode.phase." + phase + ".nanos");
+            Histogram allocated = Metrics.histogram("erode.phase." + phase + ".allocatedBytes");
+            if (nanos.count() > 0)
+                samples.add(new Sample("erode." + phase, n, nanos.sum() / 1E6, allocated.sum(), -1));
+        }
+
+        measure(samples, "interpolator.nn", n, () -> new InterpolatorNN(results));
+        Interpolator rasterizer = measure(samples, "interpolator.rasterizer", n,
+                () -> new InterpolatorCPURasterizerRandomAccess(results, 1));
+        double step = SIDE / QUERY_SIDE;
+        measure(samples, "bulkQuery", n, () -> rasterizer.interpolate(step / 2, step / 2, step, QUERY_SIDE, QUERY_SIDE));
+        System.out.printf("%,d nodes done%n", n);
+    }
+
+    private static <T> T measure(List<Sample> samples, String stage, int nodes, Supplier<T> task) {
+        System.gc();
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP).toList();
+        pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        T out = task.get();
+        double millis = (System.nanoTime() - start) / 1E6;
+        long peak = pools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        samples.add(new Sample(stage, nodes, millis, allocatedBytes() - allocated, peak));
+        return out;
+    }
+
+    private static long allocatedBytes() {
+        return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean ?
+                bean.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    // least squares slope of log(time) against log(nodes)
+    private static double exponent(List<Sample> samples) {
+        if (samples.size() < 2) return Double.NaN;
+        double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+        for (Sample sample : samples) {
+            double x = Math.log(sample.nodes), y = Math.log(Math.max(sample.millis, 1E-3));
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumXY += x * y;
+        }
+        int count = samples.size();
+        return (count * sumXY - sumX * sumY) / (count * sumXX - sumX * sumX);
+    }
+
+    private static void write(Path out, List<Sample> samples, Map<String, Double> exponents) throws IOException {
+        Files.createDirectories(out);
+        StringBuilder csv = new StringBuilder("stage,nodes,millis,allocatedBytes,peakHeapBytes\n");
+        for (Sample sample : samples)
+            csv.append(String.format(Locale.ROOT, "%s,%d,%.3f,%d,%d%n", sample.stage, sample.nodes, sample.millis,
+                    sample.allocatedBytes, sample.peakHeapBytes));
+        Files.writeString(out.resolve("scaling.csv"), csv);
+
+        StringJoiner rows = new StringJoiner(",\n    ", "[\n    ", "\n  ]");
+        for (Sample sample : samples)
+            rows.add(String.format(Locale.ROOT,
+                    "{\"stage\": \"%s\", \"nodes\": %d, \"millis\": %.3f, \"allocatedBytes\": %d, \"peakHeapBytes\": %d}",
+                    sample.stage, sample.nodes, sample.millis, sample.allocatedBytes, sample.peakHeapBytes));
+        StringJoiner fits = new StringJoiner(",\n    ", "{\n    ", "\n  }");
+        exponents.forEach((stage, exponent) ->
+                fits.add(String.format(Locale.ROOT, "\"%s\": %s", stage, Double.isNaN(exponent) ? "null" : String.format(Locale.ROOT, "%.4f", exponent))));
+        Files.writeString(out.resolve("scaling.json"), "{\n  \"samples\": " + rows + ",\n  \"exponents\": " + fits + "\n}\n");
+    }
+
+    // deterministic value noise in [0, 1]
+    private static double noise(PointD p, long seed) {
+        double x = p.x / 64, y = p.y / 64;
+        int x0 = (int) Math.floor(x), y0 = (int) Math.floor(y);
+        double fx = x - x0, fy = y - y0;
+        fx = fx * fx * (3 - 2 * fx);
+        fy = fy * fy * (3 - 2 * fy);
+        double top = lerp(hash(x0, y0, seed), hash(x0 + 1, y0, seed), fx);
+        double bottom = lerp(hash(x0, y0 + 1, seed), hash(x0 + 1, y0 + 1, seed), fx);
+        return lerp(top, bottom, fy);
+    }
+
+    private static double hash(int x, int y, long seed) {
+        long h = seed * 0x9E3779B97F4A7C15L + x * 0xBF58476D1CE4E5B9L + y * 0x94D049BB133111EBL;
+        h = (h ^ (h >>> 31)) * 0xD6E8FEB86659FD93L;
+        return ((h ^ (h >>> 32)) >>> 11) * 0x1.0p-53;
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+}
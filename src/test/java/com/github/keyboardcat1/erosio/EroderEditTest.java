@@ -0,0 +1,58 @@
+package com.github.keyboardcat1.erosio;
+
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryGrid;
+import org.junit.jupiter.api.Test;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.util.BitSet;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EroderEditTest {
+    private static final int SIZE = 40;
+    private static final double THRESHOLD = 1E-6;
+    // a static bowl, neither uplifted nor eroded, which stays a lake draining over its rim
+    private static final Predicate<PointD> CRATER = p -> Math.hypot(p.x - 20, p.y - 20) < 6;
+
+    private static EroderSettings settings() {
+        return new EroderSettings(
+                (p, t) -> CRATER.test(p) || p.x < 0.5 || p.y < 0.5 || p.x > SIZE - 0.5 || p.y > SIZE - 0.5 ? 0.0 : 1.0,
+                p -> CRATER.test(p) ? 100 * Math.hypot(p.x - 20, p.y - 20) / 6 : 0.0,
+                p -> CRATER.test(p) ? 0.0 : 2.0, 0.5,
+                (p, h) -> 30.0,
+                1, 1000, THRESHOLD
+        );
+    }
+
+    @Test
+    void unchangedSettingsKeepConvergedLakes() {
+        EroderGeometry eroderGeometry = new EroderGeometryGrid(EroderGeometry.RectDtoPolygon(new RectD(0, 0, SIZE, SIZE)), 1);
+        EroderResults previous = Eroder.erode(settings(), eroderGeometry);
+        assertTrue(previous.converged >= 0, "the fixture did not converge");
+        PackedGeometry packed = previous.packed();
+        assertTrue(drainsOverPass(previous), "the fixture has no lake");
+
+        BitSet region = new BitSet(packed.size());
+        for (int node = 0; node < packed.size(); node++)
+            if (Math.hypot(packed.xs[node] - 20, packed.ys[node] - 20) < 2) region.set(node);
+        EroderResults edited = Eroder.erode(settings(), previous, region).eroderResults();
+        for (int node = 0; node < packed.size(); node++)
+            assertEquals(previous.heights[node], edited.heights[node], THRESHOLD, "height of node " + node);
+    }
+
+    // whether a lake root drains into a node it is not adjacent to
+    private static boolean drainsOverPass(EroderResults results) {
+        PackedGeometry packed = results.packed();
+        for (int node = 0; node < packed.size(); node++) {
+            int receiver = results.receivers[node];
+            if (receiver == node) continue;
+            boolean adjacent = false;
+            for (int j = packed.adjacencyStart[node]; j < packed.adjacencyStart[node + 1]; j++)
+                adjacent |= packed.adjacency[j] == receiver;
+            if (!adjacent) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.keyboardcat1.erosio;
+
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryGrid;
+import org.junit.jupiter.api.Test;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EroderTest {
+    private static final double SIZE = 40;
+
+    private static EroderSettings settings() {
+        return new EroderSettings(
+                (p, t) -> p.x < 0.5 || p.y < 0.5 || p.x > SIZE - 0.5 || p.y > SIZE - 0.5 ? 0.0
+                        : 1 + 0.5 * Math.sin(p.x / 5) * Math.cos(p.y / 7),
+                p -> 0.0,
+                p -> 2.0, 0.5,
+                (p, h) -> 30.0,
+                1, 1000, 1E-6
+        );
+    }
+
+    private static EroderGeometry geometry() {
+        return new EroderGeometryGrid(EroderGeometry.RectDtoPolygon(new RectD(0, 0, SIZE, SIZE)), 1);
+    }
+
+    @Test
+    void incrementalWithoutToleranceMatchesFull() {
+        EroderGeometry eroderGeometry = geometry();
+        EroderResults full = Eroder.erode(settings(), eroderGeometry, NodeStore.heap());
+        EroderResults incremental = Eroder.erode(settings(), eroderGeometry, NodeStore.heap(), 0);
+        assertTrue(full.converged >= 0, "the fixture did not converge");
+
+        assertEquals(full.converged, incremental.converged);
+        assertArrayEquals(full.heights, incremental.heights);
+        assertArrayEquals(full.receivers, incremental.receivers);
+        assertArrayEquals(full.drainage, incremental.drainage);
+        assertArrayEquals(full.basins, incremental.basins);
+    }
+
+    @Test
+    void negativeToleranceIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> Eroder.erode(settings(), geometry(), NodeStore.heap(), -1));
+    }
+}
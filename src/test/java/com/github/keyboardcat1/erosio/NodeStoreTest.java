@@ -0,0 +1,50 @@
+package com.github.keyboardcat1.erosio;
+
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryGrid;
+import org.junit.jupiter.api.Test;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.nio.DoubleBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeStoreTest {
+    private static final double SIZE = 30;
+
+    private static EroderSettings settings() {
+        return new EroderSettings(
+                (p, t) -> p.x < 0.5 || p.y < 0.5 || p.x > SIZE - 0.5 || p.y > SIZE - 0.5 ? 0.0 : 1.0,
+                p -> 0.0,
+                p -> 2.0, 0.5,
+                (p, h) -> 30.0,
+                1, 1000, 1E-6
+        );
+    }
+
+    @Test
+    void directStoreMatchesHeap() {
+        EroderGeometry eroderGeometry = new EroderGeometryGrid(
+                EroderGeometry.RectDtoPolygon(new RectD(0, 0, SIZE, SIZE)), 1);
+        EroderResults heap = Eroder.erode(settings(), eroderGeometry, NodeStore.heap());
+        EroderResults direct;
+        try (NodeStore store = NodeStore.direct()) {
+            direct = Eroder.erode(settings(), eroderGeometry, store);
+        }
+
+        assertEquals(heap.converged, direct.converged);
+        assertArrayEquals(heap.heights, direct.heights);
+        assertArrayEquals(heap.receivers, direct.receivers);
+        assertArrayEquals(heap.drainage, direct.drainage);
+    }
+
+    @Test
+    void closeIsRefusedWhileColumnsAreInUse() {
+        NodeStore store = NodeStore.direct();
+        DoubleBuffer column = store.doubles(16);
+        assertThrows(IllegalStateException.class, store::close);
+
+        store.release(column);
+        store.close();
+        assertThrows(IllegalStateException.class, () -> store.doubles(16));
+    }
+}
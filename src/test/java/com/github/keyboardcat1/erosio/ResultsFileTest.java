@@ -0,0 +1,85 @@
+package com.github.keyboardcat1.erosio;
+
+import com.github.keyboardcat1.erosio.geometries.EroderGeometryGrid;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kynosarges.tektosyne.geometry.PointD;
+import org.kynosarges.tektosyne.geometry.RectD;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultsFileTest {
+    @TempDir
+    Path directory;
+
+    private static EroderResults erode() {
+        EroderSettings settings = new EroderSettings(
+                (p, t) -> 1.0,
+                p -> 0.0,
+                p -> 2.0, 0.5,
+                (p, h) -> 30.0,
+                1, 50, 1E-3
+        );
+        EroderGeometry eroderGeometry = new EroderGeometryGrid(
+                EroderGeometry.RectDtoPolygon(new RectD(0, 0, 30, 30)), 1);
+        return Eroder.erode(settings, eroderGeometry);
+    }
+
+    @Test
+    void loadReadsBackSave() throws IOException {
+        EroderResults saved = erode();
+        Path file = directory.resolve("results.bin");
+        saved.save(file);
+        EroderResults loaded = EroderResults.load(file);
+
+        assertEquals(saved.converged, loaded.converged);
+        assertEquals(saved.minHeight, loaded.minHeight, 0);
+        assertEquals(saved.maxHeight, loaded.maxHeight, 0);
+        assertArrayEquals(saved.heights, loaded.heights);
+        assertArrayEquals(saved.receivers, loaded.receivers);
+        assertArrayEquals(saved.drainage, loaded.drainage);
+        assertArrayEquals(saved.basins, loaded.basins);
+        assertArrayEquals(saved.downstreamOrder, loaded.downstreamOrder);
+
+        PackedGeometry expected = saved.packed(), actual = loaded.packed();
+        assertEquals(expected.size(), actual.size());
+        assertArrayEquals(expected.xs, actual.xs);
+        assertArrayEquals(expected.ys, actual.ys);
+        assertArrayEquals(expected.areas, actual.areas);
+        assertArrayEquals(expected.adjacencyStart, actual.adjacencyStart);
+        assertArrayEquals(expected.adjacency, actual.adjacency);
+        assertEquals(saved.eroderEdges, loaded.eroderEdges);
+
+        PointD node = new PointD(expected.xs[0], expected.ys[0]);
+        assertEquals(saved.heightMap.get(node), loaded.heightMap.get(node));
+    }
+
+    @Test
+    void loadKeepsCustomOutlets() throws IOException {
+        EroderResults saved = erode();
+        BitSet outlets = new BitSet();
+        outlets.set(0);
+        outlets.set(saved.packed().size() - 1);
+        saved.eroderGeometry.setOutlets(outlets);
+        Path file = directory.resolve("outlets.bin");
+        saved.save(file);
+        assertEquals(outlets, EroderResults.load(file).eroderGeometry.outlets());
+
+        saved.eroderGeometry.setOutlets((BitSet) null);
+        saved.save(file);
+        EroderResults loaded = EroderResults.load(file);
+        assertEquals(saved.eroderGeometry.boundary(), loaded.eroderGeometry.outlets());
+    }
+
+    @Test
+    void loadRejectsOtherFiles() throws IOException {
+        Path file = directory.resolve("other.bin");
+        Files.write(file, new byte[64]);
+        assertThrows(IOException.class, () -> EroderResults.load(file));
+    }
+}
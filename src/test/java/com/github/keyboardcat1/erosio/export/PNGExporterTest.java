@@ -0,0 +1,55 @@
+package com.github.keyboardcat1.erosio.export;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PNGExporterTest {
+    // several strips of rows, the last one partial
+    private static final int WIDTH = 50, HEIGHT = 70;
+
+    @TempDir
+    Path directory;
+
+    private static double height(int x, int y) {
+        return x == 3 && y == 5 ? Double.NaN : x * 10 + y * 3 - 100;
+    }
+
+    @Test
+    void decodesWithImageIO() throws IOException {
+        HeightSource source = new HeightSource(WIDTH, HEIGHT, 0, 0, 1) {
+            @Override
+            public void read(int x0, int y0, int width, int height, double[] out) {
+                for (int y = 0; y < height; y++)
+                    for (int x = 0; x < width; x++)
+                        out[y * width + x] = height(x0 + x, y0 + y);
+            }
+        };
+        double minHeight = 0, maxHeight = 500;
+        Path file = directory.resolve("heights.png");
+        PNGExporter.write(source, minHeight, maxHeight, file);
+
+        BufferedImage image = ImageIO.read(file.toFile());
+        assertNotNull(image, "ImageIO could not decode the PNG");
+        assertEquals(WIDTH, image.getWidth());
+        assertEquals(HEIGHT, image.getHeight());
+        assertEquals(BufferedImage.TYPE_USHORT_GRAY, image.getType());
+
+        Raster raster = image.getRaster();
+        double scale = 0xFFFF / (maxHeight - minHeight);
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++) {
+                double height = height(x, y);
+                int expected = Double.isNaN(height) ? 0 :
+                        (int) Math.max(0, Math.min(0xFFFF, Math.round((height - minHeight) * scale)));
+                assertEquals(expected, raster.getSample(x, y, 0), "gray level at " + x + ", " + y);
+            }
+    }
+}
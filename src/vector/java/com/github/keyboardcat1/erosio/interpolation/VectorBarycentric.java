@@ -0,0 +1,93 @@
+package com.github.keyboardcat1.erosio.interpolation;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD edge-function and barycentric evaluation. Every lane performs the same operations in the same order as the
+ * scalar code, without fused multiply-adds, so results are bit-identical. Compiled on its own against the incubating
+ * {@code jdk.incubator.vector} module and only loaded by {@link Vectorization} when that module is present.
+ */
+final class VectorBarycentric implements Vectorization.Barycentric {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final double[] IOTA = new double[SPECIES.length()];
+
+    static {
+        for (int i = 0; i < IOTA.length; i++) IOTA[i] = i;
+    }
+
+    VectorBarycentric() {
+    }
+
+    @Override
+    public int rasterizeRow(HeightRaster grid, int y, int x0, int x1, double pixelSize, double minX, double py,
+                            Vec3 A, Vec3 B, Vec3 C) {
+        double ABxAC = cross(A.x, A.y, B.x, B.y, C.x, C.y);
+        double CAxCB = cross(C.x, C.y, A.x, A.y, B.x, B.y);
+        double BCxBA = cross(B.x, B.y, C.x, C.y, A.x, A.y);
+        DoubleVector iota = DoubleVector.fromArray(SPECIES, IOTA, 0);
+        DoubleVector pY = DoubleVector.broadcast(SPECIES, py);
+        double[] values = new double[SPECIES.length()];
+        int x = x0;
+        for (; x + SPECIES.length() <= x1 + 1; x += SPECIES.length()) {
+            DoubleVector pX = iota.add(x).mul(pixelSize).add(minX).add(pixelSize / 2);
+            DoubleVector ABxAp = cross(A.x, A.y, B.x, B.y, pX, pY);
+            DoubleVector BCxBp = cross(B.x, B.y, C.x, C.y, pX, pY);
+            DoubleVector CAxCp = cross(C.x, C.y, A.x, A.y, pX, pY);
+            VectorMask<Double> inside = ABxAp.compare(VectorOperators.GT, 0)
+                    .and(BCxBp.compare(VectorOperators.GT, 0))
+                    .and(CAxCp.compare(VectorOperators.GT, 0));
+            if (!inside.anyTrue()) continue;
+            DoubleVector w = ABxAp.div(ABxAC);
+            DoubleVector v = CAxCp.div(CAxCB);
+            DoubleVector u = BCxBp.div(BCxBA);
+            u.mul(A.z).add(v.mul(B.z)).add(w.mul(C.z)).intoArray(values, 0);
+            for (int lane = 0; lane < SPECIES.length(); lane++)
+                if (inside.laneIsSet(lane)) grid.set(x + lane, y, values[lane]);
+        }
+        return x;
+    }
+
+    @Override
+    public int firstContaining(double[] x1, double[] y1, double[] x2, double[] y2, double[] x3, double[] y3,
+                               int[] triangles, int from, int to, double x, double y) {
+        DoubleVector pX = DoubleVector.broadcast(SPECIES, x);
+        DoubleVector pY = DoubleVector.broadcast(SPECIES, y);
+        int i = from;
+        for (; i + SPECIES.length() <= to; i += SPECIES.length()) {
+            DoubleVector ax = DoubleVector.fromArray(SPECIES, x1, 0, triangles, i);
+            DoubleVector ay = DoubleVector.fromArray(SPECIES, y1, 0, triangles, i);
+            DoubleVector bx = DoubleVector.fromArray(SPECIES, x2, 0, triangles, i);
+            DoubleVector by = DoubleVector.fromArray(SPECIES, y2, 0, triangles, i);
+            DoubleVector cx = DoubleVector.fromArray(SPECIES, x3, 0, triangles, i);
+            DoubleVector cy = DoubleVector.fromArray(SPECIES, y3, 0, triangles, i);
+            VectorMask<Double> inside = cross(ax, ay, bx, by, pX, pY).compare(VectorOperators.GT, 0)
+                    .and(cross(bx, by, cx, cy, pX, pY).compare(VectorOperators.GT, 0))
+                    .and(cross(cx, cy, ax, ay, pX, pY).compare(VectorOperators.GT, 0));
+            if (inside.anyTrue()) return triangles[i + inside.firstTrue()];
+        }
+        for (; i < to; i++) {
+            int t = triangles[i];
+            if (cross(x1[t], y1[t], x2[t], y2[t], x, y) > 0
+                    && cross(x2[t], y2[t], x3[t], y3[t], x, y) > 0
+                    && cross(x3[t], y3[t], x1[t], y1[t], x, y) > 0)
+                return t;
+        }
+        return -1;
+    }
+
+    private static double cross(double selfX, double selfY, double ax, double ay, double bx, double by) {
+        return ((ax - selfX) * (by - selfY) - (bx - selfX) * (ay - selfY));
+    }
+
+    private static DoubleVector cross(double selfX, double selfY, double ax, double ay, DoubleVector bx, DoubleVector by) {
+        return by.sub(selfY).mul(ax - selfX).sub(bx.sub(selfX).mul(ay - selfY));
+    }
+
+    private static DoubleVector cross(DoubleVector selfX, DoubleVector selfY, DoubleVector ax, DoubleVector ay,
+                                      DoubleVector bx, DoubleVector by) {
+        return ax.sub(selfX).mul(by.sub(selfY)).sub(bx.sub(selfX).mul(ay.sub(selfY)));
+    }
+}